@@ -0,0 +1,8 @@
+-- Availability IDs are handed out in blocks of 100 per process (see scheduler.db.IdAllocator),
+-- INCREMENT BY must stay in sync with Availability.ID_BLOCK_SIZE. IDs generated before this
+-- migration are between 1 and 10000, the sequence starts above them.
+ALTER TABLE Availabilities ALTER COLUMN ID SET DATA TYPE bigint;
+
+CREATE SEQUENCE IF NOT EXISTS AvailabilityIDs AS bigint
+    START WITH 10001
+    INCREMENT BY 100;
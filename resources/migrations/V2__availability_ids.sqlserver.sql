@@ -0,0 +1,19 @@
+-- Availability IDs are handed out in blocks of 100 per process (see scheduler.db.IdAllocator),
+-- INCREMENT BY must stay in sync with Availability.ID_BLOCK_SIZE. IDs generated before this
+-- migration are between 1 and 10000, the sequence starts above them.
+--
+-- The column is the primary key, whose constraint got a generated name in V1, so the constraint
+-- is dropped by looking its name up, and added again under a fixed name once the column is wider.
+DECLARE @pk sysname = (SELECT name FROM sys.key_constraints
+                       WHERE parent_object_id = OBJECT_ID('Availabilities') AND type = 'PK')
+DECLARE @dropPk nvarchar(max) = N'ALTER TABLE Availabilities DROP CONSTRAINT ' + QUOTENAME(@pk)
+EXEC (@dropPk);
+
+ALTER TABLE Availabilities ALTER COLUMN ID bigint NOT NULL;
+
+ALTER TABLE Availabilities ADD CONSTRAINT PK_Availabilities PRIMARY KEY (ID);
+
+IF OBJECT_ID('AvailabilityIDs', 'SO') IS NULL
+    CREATE SEQUENCE AvailabilityIDs AS bigint
+        START WITH 10001
+        INCREMENT BY 100;
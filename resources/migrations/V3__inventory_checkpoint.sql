@@ -0,0 +1,6 @@
+-- Journal position up to which the in-memory dose inventory has written its deltas
+-- into Vaccines (see scheduler.inventory.DoseInventory), one row per application node
+CREATE TABLE IF NOT EXISTS InventoryCheckpoint (
+    Node varchar(255) PRIMARY KEY,
+    LastSeq bigint NOT NULL
+);
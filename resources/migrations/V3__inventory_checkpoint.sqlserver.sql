@@ -0,0 +1,7 @@
+-- Journal position up to which the in-memory dose inventory has written its deltas
+-- into Vaccines (see scheduler.inventory.DoseInventory), one row per application node
+IF OBJECT_ID('InventoryCheckpoint', 'U') IS NULL
+    CREATE TABLE InventoryCheckpoint (
+        Node varchar(255) PRIMARY KEY,
+        LastSeq bigint NOT NULL
+    );
@@ -0,0 +1,2 @@
+-- reserve, search_caregiver_schedule and the slot index look for free slots on a date
+CREATE INDEX IX_Availabilities_FreeSlots ON Availabilities (Time, PatientName);
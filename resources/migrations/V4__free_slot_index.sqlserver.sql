@@ -0,0 +1,7 @@
+-- reserve, search_caregiver_schedule and the slot index look for free slots on a date.
+-- Only free slots are indexed, so the index shrinks as slots get booked, and it covers the
+-- caregiver so the lookups never touch the table.
+CREATE INDEX IX_Availabilities_FreeSlots ON Availabilities (Time)
+    INCLUDE (CaregiverName)
+    WHERE PatientName IS NULL
+    WITH (ONLINE = ON);
@@ -0,0 +1,3 @@
+-- show_appointments and cancel for patients look up the booked slots by PatientName.
+-- For caregivers the UNIQUE(CaregiverName, Time) constraint already provides an index.
+CREATE INDEX IX_Availabilities_Patient ON Availabilities (PatientName);
@@ -0,0 +1,11 @@
+-- Covering indexes for show_appointments, one per side of the appointment. Only booked slots
+-- are indexed and the clustered key (ID) comes along, so listing appointments is an index seek.
+CREATE INDEX IX_Availabilities_Patient ON Availabilities (PatientName)
+    INCLUDE (CaregiverName, VaccineName, Time)
+    WHERE PatientName IS NOT NULL
+    WITH (ONLINE = ON);
+
+CREATE INDEX IX_Availabilities_CaregiverAppointments ON Availabilities (CaregiverName)
+    INCLUDE (PatientName, VaccineName, Time)
+    WHERE PatientName IS NOT NULL
+    WITH (ONLINE = ON);
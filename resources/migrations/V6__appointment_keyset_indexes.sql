@@ -0,0 +1,4 @@
+-- show_appointments pages through a user's appointments in (Time, ID) order.
+-- For caregivers the UNIQUE(CaregiverName, Time) constraint already has that order.
+DROP INDEX IX_Availabilities_Patient;
+CREATE INDEX IX_Availabilities_Patient ON Availabilities (PatientName, Time, ID);
@@ -0,0 +1,11 @@
+-- show_appointments pages through a user's appointments in (Time, ID) order, so Time becomes part
+-- of the key (ID comes along as the clustered key) and a page is a range seek.
+CREATE INDEX IX_Availabilities_Patient ON Availabilities (PatientName, Time)
+    INCLUDE (CaregiverName, VaccineName)
+    WHERE PatientName IS NOT NULL
+    WITH (DROP_EXISTING = ON, ONLINE = ON);
+
+CREATE INDEX IX_Availabilities_CaregiverAppointments ON Availabilities (CaregiverName, Time)
+    INCLUDE (PatientName, VaccineName)
+    WHERE PatientName IS NOT NULL
+    WITH (DROP_EXISTING = ON, ONLINE = ON);
@@ -0,0 +1,4 @@
+-- Password hashes carry their algorithm and cost and are up to 70 bytes long (see
+-- scheduler.util.PasswordHasher). Old 16-byte hashes keep working and are replaced on login.
+ALTER TABLE Patients ALTER COLUMN Hash VARBINARY(128);
+ALTER TABLE Caregivers ALTER COLUMN Hash VARBINARY(128);
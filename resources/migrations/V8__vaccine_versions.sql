@@ -0,0 +1,4 @@
+-- Every write to a vaccine row bumps Version, so that an edit computed from a row it read can tell
+-- whether the row changed in the meantime (see Vaccine.updateAvailableDoses). A plain counter
+-- instead of a SQL Server ROWVERSION, so that both backends update it the same way.
+ALTER TABLE Vaccines ADD Version bigint DEFAULT 0 NOT NULL;
@@ -0,0 +1,11 @@
+-- Patients waiting for an appointment between FromTime and ToTime (see scheduler.waitlist.Waitlist),
+-- at most one entry per patient. Lower PriorityGroup is served first, then earlier RequestedAt.
+-- VaccineName is not a foreign key: patients may wait for a vaccine that has no doses yet.
+CREATE TABLE Waitlist (
+    PatientName varchar(255) PRIMARY KEY REFERENCES Patients(Username),
+    VaccineName varchar(255) NOT NULL,
+    FromTime date NOT NULL,
+    ToTime date NOT NULL,
+    PriorityGroup int DEFAULT 0 NOT NULL,
+    RequestedAt datetime2 NOT NULL
+);
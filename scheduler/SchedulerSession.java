@@ -0,0 +1,851 @@
+package scheduler;
+
+import scheduler.db.Async;
+import scheduler.db.ConnectionManager;
+import scheduler.db.UnitOfWork;
+import scheduler.inventory.DoseInventory;
+import scheduler.inventory.SlotIndex;
+import scheduler.inventory.VaccineSnapshot;
+import scheduler.metrics.Metrics;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.model.Availability;
+import scheduler.util.Config;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Recurrence;
+import scheduler.util.Util;
+import scheduler.waitlist.Waitlist;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+// One user's conversation with the scheduler: who is logged in, and the command handlers.
+// The stdin REPL uses a single session, the HTTP server keeps one per session token.
+public class SchedulerSession {
+    private static final Set<String> COMMANDS = Set.of("create_patient", "create_caregiver", "login_patient",
+            "login_caregiver", "search_caregiver_schedule", "reserve", "upload_availability", "cancel",
+            "add_doses", "set_doses", "show_appointments", "waitlist", "logout");
+    private static final int MAX_SEARCH_DAYS = Config.getInt("MaxSearchDays", 366);
+    private static final int APPOINTMENT_PAGE_SIZE = Config.getInt("AppointmentPageSize", 20);
+    private static final Date FIRST_DATE = Date.valueOf("0001-01-01");
+    private static final Date LAST_DATE = Date.valueOf("9999-12-31");
+
+    // objects to keep track of the currently logged-in user
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in at a time
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+    // where "show_appointments next" continues, null when the last page has been shown
+    private AppointmentPage nextAppointments = null;
+    // where the output of the command that is currently running goes
+    private PrintStream out = System.out;
+
+    // Runs one command, its output is written to the given stream.
+    // Commands of the same session run one after the other.
+    public synchronized void execute(String[] tokens, PrintStream out) {
+        this.out = out;
+        try {
+            // check if input exists
+            if (tokens.length == 0 || tokens[0].isEmpty()) {
+                out.println("Please try again!");
+                return;
+            }
+            // determine which operation to perform
+            String operation = tokens[0];
+            // unknown names are counted together, so user input cannot create new metrics
+            String metric = COMMANDS.contains(operation) ? operation : "invalid";
+            Metrics.Scope scope = Metrics.begin(metric);
+            try {
+                dispatch(operation, tokens);
+            } finally {
+                scope.close();
+            }
+        } finally {
+            out.flush();
+            this.out = System.out;
+        }
+    }
+
+    private void dispatch(String operation, String[] tokens) {
+        switch (operation) {
+            case "create_patient" -> createPatient(tokens);
+            case "create_caregiver" -> createCaregiver(tokens);
+            case "login_patient" -> loginPatient(tokens);
+            case "login_caregiver" -> loginCaregiver(tokens);
+            case "search_caregiver_schedule" -> searchCaregiverSchedule(tokens);
+            case "reserve" -> reserve(tokens);
+            case "upload_availability" -> uploadAvailability(tokens);
+            case "cancel" -> cancel(tokens);
+            case "add_doses" -> addDoses(tokens);
+            case "set_doses" -> setDoses(tokens);
+            case "show_appointments" -> showAppointments(tokens);
+            case "waitlist" -> waitlist(tokens);
+            case "logout" -> logout(tokens);
+            default -> out.println("Invalid operation name!");
+        }
+    }
+
+    // current login status as shown by the REPL
+    public synchronized String getLoginStatus() {
+        if (currentCaregiver != null && currentPatient != null) {
+            return "THERES IS AN ERROR WITH LOGIN SYSTEM";
+        } else if (currentCaregiver == null && currentPatient == null) {
+            return "user not logged-in yet";
+        } else if (currentCaregiver != null) {
+            return String.format("Caregiver as %s", currentCaregiver.getUsername());
+        } else {
+            return String.format("Patient as %s", currentPatient.getUsername());
+        }
+    }
+
+    private void createPatient(String[] tokens) {
+        // TODO: Part 1
+        // create_caregiver <username> <password>
+        // check 1: if someone else is still logged-in, ask user to log out first
+        if (currentCaregiver != null || currentPatient != null) {
+            out.println("Please logout first before creating a new account!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+        // check 3: check if the username has been taken already
+        if (usernameExistsPatient(username)) {
+            out.println("Username taken, try again!");
+            return;
+        }
+        byte[] salt = Util.generateSalt();
+        byte[] hash;
+        try {
+            hash = PasswordHasher.getInstance().hash(password, salt);
+        } catch (IllegalStateException e) {
+            // all password workers are busy
+            out.println(e.getMessage());
+            return;
+        }
+        // create the caregiver
+        try {
+            Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
+            // save to caregiver information to our database
+            patient.saveToDB();
+            // only now: if the name was taken after all, the insert failed and nobody is logged in
+            currentPatient = patient;
+            out.println(" *** Account created successfully *** ");
+        } catch (SQLException e) {
+            out.println("Create failed!");
+            e.printStackTrace();
+        }
+    }
+
+    private void createCaregiver(String[] tokens) {
+        // create_caregiver <username> <password>
+        // check 1: if someone else is still logged-in, ask user to log out first
+        if (currentCaregiver != null || currentPatient != null) {
+            out.println("Please logout first before creating a new account!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+        // check 3: check if the username has been taken already
+        if (usernameExistsCaregiver(username)) {
+            out.println("Username taken, try again!");
+            return;
+        }
+        byte[] salt = Util.generateSalt();
+        byte[] hash;
+        try {
+            hash = PasswordHasher.getInstance().hash(password, salt);
+        } catch (IllegalStateException e) {
+            // all password workers are busy
+            out.println(e.getMessage());
+            return;
+        }
+        // create the caregiver
+        try {
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
+            // save to caregiver information to our database
+            caregiver.saveToDB();
+            // only now: if the name was taken after all, the insert failed and nobody is logged in
+            currentCaregiver = caregiver;
+            out.println(" *** Account created successfully *** ");
+        } catch (SQLException e) {
+            out.println("Create failed");
+            e.printStackTrace();
+        }
+    }
+
+    private boolean usernameExistsPatient(String username) {
+        try {
+            return Patient.exists(username);
+        } catch (SQLException e) {
+            out.println("Error occurred when checking username");
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    private boolean usernameExistsCaregiver(String username) {
+        try {
+            return Caregiver.exists(username);
+        } catch (SQLException e) {
+            out.println("Error occurred when checking username");
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    private void loginPatient(String[] tokens) {
+        // TODO: Part 1
+        // login_patient <username> <password>
+        // check 1: if someone's already logged-in, they need to log out first
+        if (currentCaregiver != null || currentPatient != null) {
+            out.println("Already logged-in!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+
+        Patient patient = null;
+        try {
+            patient = new Patient.PatientGetter(username, password).get();
+        } catch (SQLException e) {
+            out.println("Error occurred when logging in");
+            e.printStackTrace();
+        } catch (IllegalStateException e) {
+            // all password workers are busy
+            out.println(e.getMessage());
+            return;
+        }
+        // check if the login was successful
+        if (patient == null) { // means login unsuccessful
+            out.println("Please try again!");
+        } else {
+            out.println("Patient logged in as: " + username);
+            currentPatient = patient;
+            nextAppointments = null;
+        }
+    }
+
+    private void loginCaregiver(String[] tokens) {
+        // login_caregiver <username> <password>
+        // check 1: if someone's already logged-in, they need to log out first
+        if (currentCaregiver != null || currentPatient != null) {
+            out.println("Already logged-in!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+
+        Caregiver caregiver = null;
+        try {
+            caregiver = new Caregiver.CaregiverGetter(username, password).get();
+        } catch (SQLException e) {
+            out.println("Error occurred when logging in");
+            e.printStackTrace();
+        } catch (IllegalStateException e) {
+            // all password workers are busy
+            out.println(e.getMessage());
+            return;
+        }
+        // check if the login was successful
+        if (caregiver == null) {
+            out.println("Please try again!");
+        } else {
+            out.println("Caregiver logged in as: " + username);
+            currentCaregiver = caregiver;
+            nextAppointments = null;
+        }
+    }
+
+    private void searchCaregiverSchedule(String[] tokens) {
+        // TODO: Part 2
+        // search_caregiver_schedule <date>, <start_date> <end_date> or next <days>
+        // check 1: the length for tokens need to be 2 or 3 to include all information (with the operation name)
+        if (tokens.length != 2 && tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        // check 2: if user hasn't logged-in, they need to log in first
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please login first to check caregiver schedule!");
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = null;
+
+        String selectCaregiver = "SELECT CaregiverName FROM Availabilities WHERE Time = ? AND PatientName IS NULL";
+        CompletableFuture<Map<String, Long>> vaccines;
+        try {
+            if (tokens.length == 3) {
+                Date start;
+                Date end;
+                if (tokens[1].equals("next")) {
+                    LocalDate today = LocalDate.now();
+                    start = Date.valueOf(today);
+                    end = Date.valueOf(today.plusDays(Integer.parseInt(tokens[2]) - 1));
+                } else {
+                    start = Date.valueOf(tokens[1]);
+                    end = Date.valueOf(tokens[2]);
+                }
+                if (end.before(start) || start.toLocalDate().plusDays(MAX_SEARCH_DAYS).isBefore(end.toLocalDate())) {
+                    out.println("Please enter a range of at most " + MAX_SEARCH_DAYS + " days!");
+                    return;
+                }
+                // the vaccines are read while the free slots are counted
+                vaccines = Async.supply(VaccineSnapshot::get);
+                printFreeSlotsPerDay(start, end);
+            } else {
+                // Display available caregiver
+                Date d = Date.valueOf(tokens[1]);
+                vaccines = Async.supply(VaccineSnapshot::get);
+                out.println("=====================================");
+                out.println("   Caregiver available on this day ");
+                out.println("=====================================");
+                if (SlotIndex.isEnabled()) {
+                    for (String caregiverName : SlotIndex.getInstance().getFreeCaregivers(d)) {
+                        out.printf("%20s\n", caregiverName);
+                    }
+                } else {
+                    con = cm.createConnection();
+                    PreparedStatement statement_1 = con.prepareStatement(selectCaregiver);
+                    statement_1.setDate(1, d);
+                    ResultSet resultSet_1 = statement_1.executeQuery();
+                    while(resultSet_1.next()) {
+                        out.printf("%20s\n", resultSet_1.getString("CaregiverName"));
+                    }
+                }
+            }
+            // Display available vaccines, from the snapshot instead of reading the table every time
+            out.println("=====================================");
+            out.println("  Vaccine-Type        Doses-Left");
+            out.println("=====================================");
+            for (Map.Entry<String, Long> vaccine : Async.await(vaccines).entrySet()) {
+                out.printf("  %10s  %15d\n", vaccine.getKey(), vaccine.getValue());
+            }
+        } catch (IllegalArgumentException e) {
+            // Date.valueOf and Integer.parseInt (NumberFormatException)
+            out.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            out.println("Error occurred when checking caregiver schedule");
+            e.printStackTrace();
+        } finally {
+            if (con != null) {
+                cm.closeConnection();
+            }
+        }
+    }
+
+    // Free slot counts for every day in the range that has any, and the earliest of those days.
+    // One GROUP BY over the free slot index, or no database access at all with SlotIndex=memory.
+    private void printFreeSlotsPerDay(Date start, Date end) throws SQLException {
+        SortedMap<LocalDate, Integer> freeSlots = new TreeMap<>();
+        if (SlotIndex.isEnabled()) {
+            for (Map.Entry<LocalDate, Queue<SlotIndex.Slot>> day : SlotIndex.getInstance().range(start, end).entrySet()) {
+                int count = day.getValue().size();
+                if (count > 0) {
+                    freeSlots.put(day.getKey(), count);
+                }
+            }
+        } else {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+
+            String countFreeSlots = "SELECT Time, COUNT(*) AS FreeSlots FROM Availabilities " +
+                    "WHERE Time >= ? AND Time <= ? AND PatientName IS NULL GROUP BY Time ORDER BY Time";
+            try {
+                PreparedStatement statement = con.prepareStatement(countFreeSlots);
+                statement.setDate(1, start);
+                statement.setDate(2, end);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    freeSlots.put(resultSet.getDate("Time").toLocalDate(), resultSet.getInt("FreeSlots"));
+                }
+            } catch (SQLException e) {
+                throw new SQLException(e);
+            } finally {
+                cm.closeConnection();
+            }
+        }
+        out.println("=====================================");
+        out.println("   Date              Free-Slots");
+        out.println("=====================================");
+        for (Map.Entry<LocalDate, Integer> day : freeSlots.entrySet()) {
+            out.printf("   %-12s  %14d\n", day.getKey(), day.getValue());
+        }
+        if (freeSlots.isEmpty()) {
+            out.println("No caregiver is available in this period!");
+        } else {
+            out.println("Earliest available date: " + freeSlots.firstKey());
+        }
+    }
+
+    private void reserve(String[] tokens) {
+        // TODO: Part 2
+        // reserve <date> <vaccine>
+        // check 1: if user is logged in as patient
+        if (currentPatient == null) {
+            out.println("Please login as a patient first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        String date  = tokens[1];
+        String vaccineName = tokens[2];
+        // check 3: a caregiver is available on given date and the vaccine has doses left,
+        // both are checked and booked atomically by the reserver
+        try {
+            Date d = Date.valueOf(date);
+            Availability.AvailabilityReserver reserver =
+                    new Availability.AvailabilityReserver(currentPatient.getUsername(), vaccineName, d);
+            // with the in-memory inventory the dose is taken up front, without a database round trip
+            boolean fromInventory = DoseInventory.isEnabled();
+            if (fromInventory) {
+                if (!DoseInventory.getInstance().tryTake(vaccineName, 1)) {
+                    out.printf("%s is not available\n", vaccineName);
+                    return;
+                }
+                reserver.withoutDose();
+            }
+            Availability currentAppointment = null;
+            try {
+                currentAppointment = reserver.reserve();
+            } finally {
+                if (fromInventory && currentAppointment == null) {
+                    DoseInventory.getInstance().release(vaccineName, 1);
+                }
+            }
+            if (currentAppointment == null) {
+                if (reserver.getStatus() == Availability.AvailabilityReserver.Status.NO_CAREGIVER) {
+                    out.println("Provided date has no caregivers available!");
+                    if (Waitlist.isEnabled()) {
+                        out.println("Use waitlist <start_date> <end_date> <vaccine> to be booked as soon as a slot opens up.");
+                    }
+                } else {
+                    out.printf("%s is not available\n", vaccineName);
+                }
+                return;
+            }
+            // Output assigned caregiver and appointment ID
+            currentAppointment.printAppointmentDetail(out);
+            out.println("Reservation successful!");
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            out.println("Reservation failed!");
+            e.printStackTrace();
+        }
+    }
+
+    private void uploadAvailability(String[] tokens) {
+        // upload_availability <date>
+        // upload_availability <start_date> <end_date> [daily|weekdays|weekends|mon,wed,...]
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be 2 to 4 to include all information (with the operation name)
+        if (tokens.length < 2 || tokens.length > 4) {
+            out.println("Please try again!");
+            return;
+        }
+        try {
+            Date start = Date.valueOf(tokens[1]);
+            int uploaded;
+            if (tokens.length == 2) {
+                uploaded = currentCaregiver.uploadAvailability(Collections.singletonList(start), out);
+            } else {
+                Date end = Date.valueOf(tokens[2]);
+                String rule = tokens.length == 4 ? tokens[3] : "daily";
+                uploaded = currentCaregiver.uploadAvailability(Recurrence.expand(start, end, rule), out);
+            }
+            if (uploaded > 0) {
+                notifyWaitlist();
+            }
+        } catch (IllegalArgumentException e) {
+            // thrown by Date.valueOf for malformed dates and by Recurrence for bad ranges or rules
+            if (e.getMessage() == null || e.getMessage().isEmpty()) {
+                out.println("Please enter a valid date!");
+            } else {
+                out.println(e.getMessage());
+            }
+        } catch (SQLException e) {
+            out.println("Error occurred when uploading availability");
+            e.printStackTrace();
+        }
+    }
+
+    private void cancel(String[] tokens) {
+        // TODO: Extra credit
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please login first to cancel appointments!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 1
+        if (tokens.length != 2) {
+            out.println("Please try again!");
+            return;
+        }
+        long ID;
+        try {
+            ID = Long.parseLong(tokens[1]);
+        } catch (NumberFormatException e) {
+            out.println("invalid Appointment ID!");
+            return;
+        }
+        String user = currentCaregiver != null ? "Caregiver" : "Patient";
+        String username = currentCaregiver != null ? currentCaregiver.getUsername() : currentPatient.getUsername();
+        // freeing the slot and giving back its dose commit together, on one connection
+        try (UnitOfWork work = UnitOfWork.begin()) {
+            // check 3: whether appointment exist
+            Availability cancelled = Availability.cancel(user, username, ID);
+            if (cancelled == null) {
+                out.println("invalid Appointment ID!");
+                return;
+            }
+            // update Vaccines table
+            String vaccineName = cancelled.getVaccineName();
+            if (vaccineName == null) {
+                // the slot was not booked, there is no dose to give back
+            } else if (DoseInventory.isEnabled()) {
+                work.afterCommit(() -> DoseInventory.getInstance().release(vaccineName, 1));
+            } else {
+                Vaccine.returnDoses(vaccineName, 1);
+            }
+            work.commit();
+            out.println("Cancellation successful!");
+            notifyWaitlist();
+        } catch (SQLException e) {
+            out.println("Error occurred when cancelling user appointments");
+            e.printStackTrace();
+        }
+    }
+
+    private void addDoses(String[] tokens) {
+        // add_doses <vaccine> <number>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        try {
+            String vaccineName = tokens[1];
+            int doses = Integer.parseInt(tokens[2]);
+            if (DoseInventory.isEnabled() && DoseInventory.getInstance().contains(vaccineName)) {
+                // written to the Vaccines table by the inventory flusher
+                DoseInventory.getInstance().add(vaccineName, doses);
+                out.println("Doses updated!");
+                notifyWaitlist();
+                return;
+            }
+            Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+            // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
+            // table
+            if (vaccine == null) {
+                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
+                vaccine.saveToDB();
+                if (DoseInventory.isEnabled()) {
+                    DoseInventory.getInstance().register(vaccineName, doses);
+                }
+            } else {
+                // if the vaccine is not null, meaning that the vaccine already exists in our table
+                vaccine.increaseAvailableDoses(doses);
+                if (DoseInventory.isEnabled()) {
+                    DoseInventory.getInstance().register(vaccineName, vaccine.getAvailableDoses());
+                }
+            }
+            out.println("Doses updated!");
+            notifyWaitlist();
+        } catch (NumberFormatException e) {
+            out.println("Please enter a valid number of doses!");
+            return;
+        } catch (SQLException e) {
+            out.println("Error occurred when adding doses");
+            e.printStackTrace();
+        }
+    }
+
+    private void setDoses(String[] tokens) {
+        // set_doses <vaccine> <number>     e.g. after counting the stock
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        try {
+            String vaccineName = tokens[1];
+            int doses = Integer.parseInt(tokens[2]);
+            if (doses < 0) {
+                out.println("Please enter a valid number of doses!");
+                return;
+            }
+            // the in-memory counts can only take deltas
+            if (DoseInventory.isEnabled() && DoseInventory.getInstance().contains(vaccineName)) {
+                out.println("The doses of " + vaccineName + " are counted in memory, please use add_doses!");
+                return;
+            }
+            // not a delta: written only if nobody changed the row since it was read, so the
+            // number replaced is exactly the one shown
+            int[] before = new int[1];
+            Vaccine vaccine = Vaccine.updateAvailableDoses(vaccineName, current -> {
+                before[0] = current;
+                return doses;
+            });
+            if (vaccine == null) {
+                out.println(vaccineName + " does not exist, please use add_doses!");
+                return;
+            }
+            out.printf("Doses of %s: %d -> %d\n", vaccineName, before[0], vaccine.getAvailableDoses());
+            out.println("Doses updated!");
+            if (doses > before[0]) {
+                notifyWaitlist();
+            }
+        } catch (NumberFormatException e) {
+            out.println("Please enter a valid number of doses!");
+        } catch (SQLException e) {
+            out.println("Error occurred when setting doses");
+            e.printStackTrace();
+        }
+    }
+
+    private void waitlist(String[] tokens) {
+        // waitlist <start_date> <end_date> <vaccine>   join (patients)
+        // waitlist [leave]                             show or leave your entry (patients)
+        // waitlist [priority <patient> <group>]        show the queue or change a patient's group (caregivers)
+        // check 1: check if the user is logged in
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please login first to use the waitlist!");
+            return;
+        }
+        if (!Waitlist.isEnabled()) {
+            out.println("The waitlist is not available!");
+            return;
+        }
+        try {
+            Waitlist waitlist = Waitlist.getInstance();
+            if (currentCaregiver != null) {
+                if (tokens.length == 1) {
+                    out.printf("%d patient(s) waiting\n", waitlist.size());
+                    for (Waitlist.Entry entry : waitlist.peek(10)) {
+                        out.printf("%s %s %s to %s (group %d)\n", entry.getPatientName(), entry.getVaccineName(),
+                                entry.getFrom(), entry.getTo(), entry.getPriorityGroup());
+                    }
+                } else if (tokens.length == 4 && tokens[1].equals("priority")) {
+                    int group = Integer.parseInt(tokens[3]);
+                    if (group < 0) {
+                        out.println("Please enter a valid priority group!");
+                    } else if (waitlist.setPriorityGroup(tokens[2], group)) {
+                        out.println("Priority updated!");
+                    } else {
+                        out.println(tokens[2] + " is not on the waitlist!");
+                    }
+                } else {
+                    out.println("Please try again!");
+                }
+                return;
+            }
+            String username = currentPatient.getUsername();
+            if (tokens.length == 1) {
+                Waitlist.Entry entry = waitlist.get(username);
+                if (entry == null) {
+                    out.println("You are not on the waitlist!");
+                } else {
+                    out.printf("Waiting for %s between %s and %s, position %d of %d\n", entry.getVaccineName(),
+                            entry.getFrom(), entry.getTo(), waitlist.getPosition(username), waitlist.size());
+                }
+            } else if (tokens.length == 2 && tokens[1].equals("leave")) {
+                out.println(waitlist.leave(username) ? "You left the waitlist!" : "You are not on the waitlist!");
+            } else if (tokens.length == 4) {
+                Date start = Date.valueOf(tokens[1]);
+                Date end = Date.valueOf(tokens[2]);
+                if (end.before(start) || end.toLocalDate().isBefore(LocalDate.now())
+                        || start.toLocalDate().plusDays(MAX_SEARCH_DAYS).isBefore(end.toLocalDate())) {
+                    out.println("Please enter a valid date range!");
+                } else if (waitlist.join(username, tokens[3], start, end)) {
+                    out.println("Added to the waitlist! You will be booked as soon as a slot and a dose are free, "
+                            + "check show_appointments.");
+                } else {
+                    out.println("You are already on the waitlist, use waitlist leave first!");
+                }
+            } else {
+                out.println("Please try again!");
+            }
+        } catch (IllegalArgumentException e) {
+            // Date.valueOf and Integer.parseInt
+            out.println("Please try again!");
+        } catch (SQLException e) {
+            out.println("Error occurred when updating the waitlist");
+            e.printStackTrace();
+        }
+    }
+
+    // slots or doses were added or freed, waiting patients may now get them
+    private static void notifyWaitlist() {
+        if (Waitlist.isEnabled()) {
+            Waitlist.getInstance().notifyCapacity();
+        }
+    }
+
+    private void showAppointments(String[] tokens) {
+        // TODO: Part 2
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please login first to check appointments!");
+            return;
+        }
+        // check 2: show_appointments [<start_date> [<end_date>]] or show_appointments next
+        if (tokens.length > 3) {
+            out.println("Please try again!");
+            return;
+        }
+        AppointmentPage page;
+        if (tokens.length == 2 && tokens[1].equals("next")) {
+            if (nextAppointments == null) {
+                out.println("No more appointments!");
+                return;
+            }
+            page = nextAppointments;
+        } else {
+            try {
+                Date start = tokens.length > 1 ? Date.valueOf(tokens[1]) : FIRST_DATE;
+                Date end = tokens.length > 2 ? Date.valueOf(tokens[2]) : LAST_DATE;
+                page = new AppointmentPage(end, start, Long.MIN_VALUE);
+            } catch (IllegalArgumentException e) {
+                out.println("Please enter a valid date!");
+                return;
+            }
+        }
+        nextAppointments = null;
+
+        // keyset pagination on (Time, ID): each page starts right after the last row printed, so
+        // a page costs the same no matter how much history comes before it
+        String otherUser = currentCaregiver != null ? "Patient" : "Caregiver";
+        String getAppoint = currentCaregiver != null
+                ? "SELECT ID, VaccineName, Time, PatientName FROM Availabilities " +
+                  "WHERE CaregiverName = ? AND PatientName IS NOT NULL "
+                : "SELECT ID, VaccineName, Time, CaregiverName FROM Availabilities " +
+                  "WHERE PatientName = ? ";
+        getAppoint += "AND Time >= ? AND Time <= ? AND (Time > ? OR ID > ?) " +
+                "ORDER BY Time, ID OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY";
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(getAppoint);
+            statement.setString(1, currentCaregiver != null ? currentCaregiver.getUsername() : currentPatient.getUsername());
+            statement.setDate(2, page.lastTime);
+            statement.setDate(3, page.end);
+            statement.setDate(4, page.lastTime);
+            statement.setLong(5, page.lastID);
+            // one extra row tells whether there is another page
+            statement.setInt(6, APPOINTMENT_PAGE_SIZE + 1);
+            statement.setFetchSize(APPOINTMENT_PAGE_SIZE + 1);
+            ResultSet resultSet = statement.executeQuery();
+            out.println("===============================================================");
+            out.println("  Appointment-ID     Vaccine-Type        Date        " + otherUser);
+            out.println("===============================================================");
+            int printed = 0;
+            Date lastTime = null;
+            long lastID = 0;
+            while (resultSet.next()) {
+                if (printed == APPOINTMENT_PAGE_SIZE) {
+                    nextAppointments = new AppointmentPage(page.end, lastTime, lastID);
+                    break;
+                }
+                lastID = resultSet.getLong(1);
+                lastTime = resultSet.getDate(3);
+                out.printf("%10s%20s%18s%12s\n",
+                        lastID + "",
+                        resultSet.getString(2),
+                        lastTime + "",
+                        resultSet.getString(4));
+                printed++;
+            }
+            if (nextAppointments != null) {
+                out.println("Type \"show_appointments next\" to see more.");
+            }
+        } catch (SQLException e) {
+            out.println("Error occurred when checking user appointments");
+            e.printStackTrace();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void logout(String[] tokens) {
+        // TODO: Part 2
+        // logout
+        // check 1: check if there is even a user currently logged-in
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("You are not logged-in yet!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 1
+        if (tokens.length != 1) {
+            out.println("Please try again!");
+            return;
+        }
+        // logout
+        currentCaregiver = null;
+        currentPatient = null;
+        nextAppointments = null;
+    }
+
+    // a position in the current user's appointments, ordered by date and ID
+    private static class AppointmentPage {
+        private final Date end;
+        private final Date lastTime;
+        private final long lastID;
+
+        AppointmentPage(Date end, Date lastTime, long lastID) {
+            this.end = end;
+            this.lastTime = lastTime;
+            this.lastID = lastID;
+        }
+    }
+}
@@ -0,0 +1,678 @@
+package scheduler.batch;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Dialect;
+import scheduler.db.UnitOfWork;
+import scheduler.events.Event;
+import scheduler.events.EventLog;
+import scheduler.inventory.AssignmentStrategy;
+import scheduler.inventory.CaregiverLoad;
+import scheduler.inventory.DoseInventory;
+import scheduler.inventory.SlotIndex;
+import scheduler.model.Vaccine;
+import scheduler.util.Config;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Books a whole file of reservation requests at once, e.g. the patient list of a vaccination drive.
+//
+//     java scheduler.batch.BatchReservation requests.csv [out=results.csv]
+//
+// Every line of the file is patient,vaccine,date (yyyy-mm-dd); empty lines and lines starting
+// with # are skipped. Requests are grouped by date and vaccine and solved against the free slots
+// and the dose stock as they are when the job starts:
+//
+// - in rounds: each round splits the remaining doses over the dates, earliest date first, then
+//   solves every date on its own in a ForkJoinPool of BatchReservationThreads (one per core). A
+//   date hands out its slots (in AssignmentStrategy order) to its requests in file order, as far
+//   as its share of the doses goes. Doses a date could not use go back into the next round, which
+//   only runs if the last one assigned something.
+// - the result is committed in transactions of BatchReservationCommitSize (500) requests: one
+//   dose update per vaccine and one JDBC batch of conditional slot updates. If a vaccine has fewer
+//   doses left than the chunk needs, the update takes what is left and hands it to the chunk's
+//   requests in file order. A slot that was booked by someone else since the job read it is
+//   reported as taken and its dose given back.
+//
+// Requests for unknown patients or vaccines, and a patient's second request for the same date,
+// are not booked. The job prints how many requests ended how and its throughput; with out= every
+// request is written back with its outcome, appointment ID and caregiver.
+public class BatchReservation {
+    private static final int COMMIT_SIZE = Config.getInt("BatchReservationCommitSize", 500);
+    // names per IN list when checking that patients exist, well below SQL Server's 2100 parameters
+    private static final int LOOKUP_SIZE = 1000;
+
+    // NOT_COMMITTED: assigned, but its transaction failed or never ran because an earlier one failed
+    public enum Outcome { ASSIGNED, NO_SLOT, NO_DOSES, TAKEN, UNKNOWN_PATIENT, UNKNOWN_VACCINE, DUPLICATE, INVALID, NOT_COMMITTED }
+
+    private final ForkJoinPool pool;
+    private final AssignmentStrategy strategy = AssignmentStrategy.getDefault();
+
+    public BatchReservation(int threads) {
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: BatchReservation <requests file> [out=<results file>]");
+            return;
+        }
+        Path out = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("out=")) {
+                out = Paths.get(args[i].substring(4));
+            } else {
+                System.out.println("Unknown argument: " + args[i]);
+                return;
+            }
+        }
+        BatchReservation job = new BatchReservation(Config.getInt("BatchReservationThreads",
+                Runtime.getRuntime().availableProcessors()));
+        long start = System.nanoTime();
+        // returns normally, or with the exception and exit status 1 if the job failed; the pools
+        // only run daemon threads and are closed by their shutdown hooks
+        try {
+            List<Request> requests = read(Paths.get(args[0]));
+            Report report;
+            try {
+                report = job.run(requests);
+            } catch (CommitFailure e) {
+                // what was committed before the failure stays booked, report it before giving up
+                if (out != null) {
+                    write(out, requests);
+                }
+                e.getReport().print(System.nanoTime() - start);
+                throw e;
+            }
+            if (out != null) {
+                write(out, requests);
+            }
+            report.print(System.nanoTime() - start);
+        } finally {
+            job.pool.shutdown();
+        }
+    }
+
+    // One request per line, unparseable lines become INVALID requests with empty fields and a reason
+    public static List<Request> read(Path file) throws IOException {
+        List<Request> requests = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",", -1);
+                String invalid = null;
+                LocalDate date = null;
+                if (fields.length != 3) {
+                    invalid = "expected 3 fields but found " + fields.length;
+                } else if (fields[0].trim().isEmpty() || fields[1].trim().isEmpty()) {
+                    invalid = "empty patient or vaccine";
+                } else {
+                    try {
+                        date = LocalDate.parse(fields[2].trim());
+                    } catch (DateTimeParseException e) {
+                        invalid = "date is not yyyy-mm-dd";
+                    }
+                }
+                if (invalid == null) {
+                    requests.add(new Request(lineNumber, fields[0].trim(), fields[1].trim(), date));
+                } else {
+                    // the line itself is not copied, the results file refers to it by its number
+                    Request request = new Request(lineNumber, null, null, null);
+                    request.outcome = Outcome.INVALID;
+                    request.reason = invalid;
+                    requests.add(request);
+                }
+            }
+        }
+        return requests;
+    }
+
+    public static void write(Path file, List<Request> requests) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("# line,patient,vaccine,date,outcome,appointment,caregiver,reason");
+            writer.newLine();
+            for (Request request : requests) {
+                writer.write(request.lineNumber + "," + field(request.patientName) + "," +
+                        field(request.vaccineName) + "," + field(request.date) + "," + request.outcome + "," +
+                        (request.outcome == Outcome.ASSIGNED ? request.slotID + "," + request.caregiverName : ",") + "," +
+                        field(request.reason));
+                writer.newLine();
+            }
+        }
+    }
+
+    private static String field(Object value) {
+        return value == null ? "" : value.toString();
+    }
+
+    // Solves and commits the requests, their outcome and appointment are set on them. If a
+    // transaction fails, the requests it and the later ones held become NOT_COMMITTED and the
+    // CommitFailure thrown carries the report of the transactions committed before it.
+    public Report run(List<Request> requests) throws SQLException {
+        Report report = new Report(requests.size());
+        long start = System.nanoTime();
+        Map<String, String> vaccines = new HashMap<>();
+        Map<String, Long> stock = loadStock(vaccines);
+        Set<String> patients = loadPatients(requests);
+        TreeMap<LocalDate, DateGroup> dates = group(requests, vaccines, patients);
+        loadFreeSlots(dates);
+        solve(dates, stock);
+        report.solveNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<Request> assigned = new ArrayList<>();
+        for (DateGroup group : dates.values()) {
+            for (Request request : group.requests) {
+                if (request.outcome == Outcome.ASSIGNED) {
+                    assigned.add(request);
+                }
+            }
+        }
+        SQLException failure = null;
+        for (int from = 0; from < assigned.size() && failure == null; from += COMMIT_SIZE) {
+            try {
+                commit(assigned.subList(from, Math.min(from + COMMIT_SIZE, assigned.size())));
+                report.transactions++;
+            } catch (SQLException e) {
+                failure = e;
+                for (Request request : assigned.subList(from, assigned.size())) {
+                    if (request.outcome == Outcome.ASSIGNED) {
+                        request.outcome = Outcome.NOT_COMMITTED;
+                    }
+                }
+            }
+        }
+        report.commitNanos = System.nanoTime() - start;
+        for (Request request : requests) {
+            report.outcomes.merge(request.outcome, 1, Integer::sum);
+        }
+        if (failure != null) {
+            throw new CommitFailure(report, failure);
+        }
+        return report;
+    }
+
+    // lower-case name -> doses, canonicalNames gets lower-case name -> name as stored
+    private Map<String, Long> loadStock(Map<String, String> canonicalNames) throws SQLException {
+        Map<String, Long> stock = new HashMap<>();
+        if (DoseInventory.isEnabled()) {
+            for (Map.Entry<String, Long> vaccine : DoseInventory.getInstance().snapshot().entrySet()) {
+                canonicalNames.put(key(vaccine.getKey()), vaccine.getKey());
+                stock.put(key(vaccine.getKey()), vaccine.getValue());
+            }
+            return stock;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getVaccines = "SELECT Name, Doses FROM Vaccines";
+        try {
+            PreparedStatement statement = con.prepareStatement(getVaccines);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                String name = resultSet.getString("Name");
+                canonicalNames.put(key(name), name);
+                stock.put(key(name), resultSet.getLong("Doses"));
+            }
+            return stock;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // the lower-case names of the requests' patients that exist
+    private Set<String> loadPatients(List<Request> requests) throws SQLException {
+        List<String> names = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Request request : requests) {
+            if (request.outcome == null && seen.add(key(request.patientName))) {
+                names.add(request.patientName);
+            }
+        }
+        Set<String> found = new HashSet<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            for (int from = 0; from < names.size(); from += LOOKUP_SIZE) {
+                List<String> chunk = names.subList(from, Math.min(from + LOOKUP_SIZE, names.size()));
+                StringBuilder getPatients = new StringBuilder("SELECT Username FROM Patients WHERE Username IN (");
+                for (int i = 0; i < chunk.size(); i++) {
+                    getPatients.append(i == 0 ? "?" : ", ?");
+                }
+                PreparedStatement statement = con.prepareStatement(getPatients.append(')').toString());
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 1, chunk.get(i));
+                }
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    found.add(key(resultSet.getString("Username")));
+                }
+            }
+            return found;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // valid requests by date, in file order; the others get their outcome here
+    private static TreeMap<LocalDate, DateGroup> group(List<Request> requests, Map<String, String> vaccines, Set<String> patients) {
+        TreeMap<LocalDate, DateGroup> dates = new TreeMap<>();
+        Set<String> patientDates = new HashSet<>();
+        for (Request request : requests) {
+            if (request.outcome != null) {
+                continue;
+            }
+            String vaccineName = vaccines.get(key(request.vaccineName));
+            if (!patients.contains(key(request.patientName))) {
+                request.outcome = Outcome.UNKNOWN_PATIENT;
+            } else if (vaccineName == null) {
+                request.outcome = Outcome.UNKNOWN_VACCINE;
+            } else if (!patientDates.add(key(request.patientName) + " " + request.date)) {
+                request.outcome = Outcome.DUPLICATE;
+            } else {
+                request.vaccineName = vaccineName;
+                dates.computeIfAbsent(request.date, DateGroup::new).requests.add(request);
+            }
+        }
+        return dates;
+    }
+
+    private void loadFreeSlots(TreeMap<LocalDate, DateGroup> dates) throws SQLException {
+        if (dates.isEmpty()) {
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getFreeSlots = "SELECT ID, CaregiverName, Time FROM Availabilities " +
+                "WHERE Time BETWEEN ? AND ? AND PatientName IS NULL";
+        try {
+            PreparedStatement statement = con.prepareStatement(getFreeSlots);
+            statement.setDate(1, Date.valueOf(dates.firstKey()));
+            statement.setDate(2, Date.valueOf(dates.lastKey()));
+            statement.setFetchSize(10_000);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                LocalDate date = resultSet.getDate("Time").toLocalDate();
+                DateGroup group = dates.get(date);
+                if (group != null) {
+                    group.slots.add(new SlotIndex.Slot(resultSet.getLong("ID"), resultSet.getString("CaregiverName"), date));
+                }
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+        for (DateGroup group : dates.values()) {
+            group.slots = strategy.order(group.date, group.slots, CaregiverLoad.getInstance());
+        }
+    }
+
+    private void solve(TreeMap<LocalDate, DateGroup> dates, Map<String, Long> stock) {
+        List<DateGroup> groups = new ArrayList<>(dates.values());
+        while (true) {
+            // the doses each date may hand out this round, earliest date first
+            for (DateGroup group : groups) {
+                group.budget.clear();
+                int slotsLeft = group.slots.size() - group.slotsUsed;
+                for (Map.Entry<String, Integer> demand : group.pendingByVaccine().entrySet()) {
+                    long available = stock.getOrDefault(demand.getKey(), 0L);
+                    int share = (int) Math.min(Math.min(demand.getValue(), available), slotsLeft);
+                    if (share > 0) {
+                        group.budget.put(demand.getKey(), share);
+                        stock.put(demand.getKey(), available - share);
+                    }
+                }
+            }
+            pool.invoke(new SolveDates(groups, 0, groups.size()));
+            int assigned = 0;
+            for (DateGroup group : groups) {
+                assigned += group.assignedInRound;
+                for (Map.Entry<String, Integer> unused : group.budget.entrySet()) {
+                    stock.merge(unused.getKey(), (long) unused.getValue(), Long::sum);
+                }
+            }
+            if (assigned == 0) {
+                break;
+            }
+        }
+        for (DateGroup group : groups) {
+            for (Request request : group.requests) {
+                if (request.outcome == null) {
+                    request.outcome = group.slotsUsed < group.slots.size() ? Outcome.NO_DOSES : Outcome.NO_SLOT;
+                }
+            }
+        }
+    }
+
+    // Splits the dates until each task solves one
+    private static class SolveDates extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<DateGroup> groups;
+        private final int from;
+        private final int to;
+
+        SolveDates(List<DateGroup> groups, int from, int to) {
+            this.groups = groups;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                groups.get(from).solve();
+            } else if (to > from) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SolveDates(groups, from, middle), new SolveDates(groups, middle, to));
+            }
+        }
+    }
+
+    // Claims the slots and takes the doses of the requests in one transaction
+    private void commit(List<Request> chunk) throws SQLException {
+        Map<String, Integer> needed = new LinkedHashMap<>();
+        for (Request request : chunk) {
+            needed.merge(request.vaccineName, 1, Integer::sum);
+        }
+        boolean fromInventory = DoseInventory.isEnabled();
+        Map<String, Integer> taken = new LinkedHashMap<>();
+        Map<String, Integer> returned = new HashMap<>();
+        List<Request> booked = new ArrayList<>();
+        try (UnitOfWork work = UnitOfWork.begin()) {
+            Connection con = work.getConnection();
+            // takes what is left if that is less than needed, the update returns the doses before it
+            String takeDoses;
+            if (ConnectionManager.getDialect() == Dialect.SQL_SERVER) {
+                takeDoses = "UPDATE Vaccines SET Doses = Doses - CASE WHEN Doses < ? THEN Doses ELSE ? END, " +
+                        "Version = Version + 1 OUTPUT deleted.Doses WHERE Name = ? AND Doses > 0";
+            } else {
+                takeDoses = "SELECT Doses FROM OLD TABLE (UPDATE Vaccines SET Doses = Doses - " +
+                        "CASE WHEN Doses < ? THEN Doses ELSE ? END, Version = Version + 1 WHERE Name = ? AND Doses > 0)";
+            }
+            PreparedStatement statement = con.prepareStatement(takeDoses);
+            for (Map.Entry<String, Integer> vaccine : needed.entrySet()) {
+                int took;
+                if (fromInventory) {
+                    took = DoseInventory.getInstance().takeUpTo(vaccine.getKey(), vaccine.getValue());
+                } else {
+                    statement.setInt(1, vaccine.getValue());
+                    statement.setInt(2, vaccine.getValue());
+                    statement.setString(3, vaccine.getKey());
+                    ResultSet resultSet = statement.executeQuery();
+                    took = resultSet.next() ? (int) Math.min(resultSet.getLong("Doses"), vaccine.getValue()) : 0;
+                }
+                if (took > 0) {
+                    taken.put(vaccine.getKey(), took);
+                }
+            }
+
+            // the doses taken go to the chunk's requests in file order
+            Map<String, Integer> left = new HashMap<>(taken);
+            List<Request> claiming = new ArrayList<>();
+            PreparedStatement claimSlots = con.prepareStatement(
+                    "UPDATE Availabilities SET PatientName = ?, VaccineName = ? WHERE ID = ? AND PatientName IS NULL");
+            for (Request request : chunk) {
+                int doses = left.getOrDefault(request.vaccineName, 0);
+                if (doses == 0) {
+                    // the stock went down since the job read it
+                    request.outcome = Outcome.NO_DOSES;
+                    continue;
+                }
+                left.put(request.vaccineName, doses - 1);
+                claimSlots.setString(1, request.patientName);
+                claimSlots.setString(2, request.vaccineName);
+                claimSlots.setLong(3, request.slotID);
+                claimSlots.addBatch();
+                claiming.add(request);
+            }
+            int[] counts = claiming.isEmpty() ? new int[0] : claimSlots.executeBatch();
+            for (int i = 0; i < claiming.size(); i++) {
+                Request request = claiming.get(i);
+                if (counts[i] == 0) {
+                    request.outcome = Outcome.TAKEN;
+                    returned.merge(request.vaccineName, 1, Integer::sum);
+                } else if (counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO) {
+                    booked.add(request);
+                }
+            }
+            if (!fromInventory && !returned.isEmpty()) {
+                PreparedStatement returnDoses = con.prepareStatement(
+                        "UPDATE Vaccines SET Doses = Doses + ?, Version = Version + 1 WHERE Name = ?");
+                for (Map.Entry<String, Integer> vaccine : returned.entrySet()) {
+                    returnDoses.setInt(1, vaccine.getValue());
+                    returnDoses.setString(2, vaccine.getKey());
+                    returnDoses.addBatch();
+                }
+                returnDoses.executeBatch();
+            }
+            work.commit();
+        } catch (SQLException e) {
+            if (fromInventory) {
+                for (Map.Entry<String, Integer> vaccine : taken.entrySet()) {
+                    DoseInventory.getInstance().release(vaccine.getKey(), vaccine.getValue());
+                }
+            }
+            throw new SQLException(e);
+        }
+        if (fromInventory) {
+            for (Map.Entry<String, Integer> vaccine : returned.entrySet()) {
+                DoseInventory.getInstance().release(vaccine.getKey(), vaccine.getValue());
+            }
+        }
+        booked(booked, taken, returned, fromInventory);
+    }
+
+    // what a committed chunk changes outside the database
+    private static void booked(List<Request> booked, Map<String, Integer> taken, Map<String, Integer> returned,
+                               boolean fromInventory) {
+        for (Request request : booked) {
+            Date date = Date.valueOf(request.date);
+            if (SlotIndex.isEnabled()) {
+                SlotIndex.getInstance().remove(date, request.slotID);
+            }
+            CaregiverLoad.getInstance().booked(request.date, request.caregiverName);
+            EventLog.record(Event.slot(Event.Type.SLOT_BOOKED, request.slotID, date, request.caregiverName,
+                    request.patientName, request.vaccineName));
+        }
+        for (Map.Entry<String, Integer> vaccine : taken.entrySet()) {
+            int used = vaccine.getValue() - returned.getOrDefault(vaccine.getKey(), 0);
+            Vaccine.invalidate(vaccine.getKey());
+            // the inventory logs its own dose changes
+            if (!fromInventory && used > 0) {
+                EventLog.record(Event.doses(vaccine.getKey(), -used));
+            }
+        }
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    // The requests and free slots of one date
+    private static class DateGroup {
+        private final LocalDate date;
+        private final List<Request> requests = new ArrayList<>();
+        private List<SlotIndex.Slot> slots = new ArrayList<>();
+        private int slotsUsed = 0;
+        // lower-case vaccine name -> doses this date may still use in the current round
+        private final Map<String, Integer> budget = new HashMap<>();
+        private int assignedInRound;
+
+        DateGroup(LocalDate date) {
+            this.date = date;
+        }
+
+        // unassigned requests per lower-case vaccine name, in the order the vaccines first appear
+        private Map<String, Integer> pendingByVaccine() {
+            Map<String, Integer> pending = new LinkedHashMap<>();
+            for (Request request : requests) {
+                if (request.outcome == null) {
+                    pending.merge(key(request.vaccineName), 1, Integer::sum);
+                }
+            }
+            return pending;
+        }
+
+        // hands out the free slots to the requests in file order, as far as the budget goes
+        private void solve() {
+            assignedInRound = 0;
+            for (Request request : requests) {
+                if (slotsUsed == slots.size()) {
+                    break;
+                }
+                if (request.outcome != null) {
+                    continue;
+                }
+                String vaccine = key(request.vaccineName);
+                Integer doses = budget.get(vaccine);
+                if (doses == null) {
+                    continue;
+                }
+                SlotIndex.Slot slot = slots.get(slotsUsed++);
+                request.outcome = Outcome.ASSIGNED;
+                request.slotID = slot.getID();
+                request.caregiverName = slot.getCaregiverName();
+                assignedInRound++;
+                if (doses == 1) {
+                    budget.remove(vaccine);
+                } else {
+                    budget.put(vaccine, doses - 1);
+                }
+            }
+        }
+    }
+
+    public static class Request {
+        private final int lineNumber;
+        private final String patientName;
+        private String vaccineName;
+        private final LocalDate date;
+        private Outcome outcome;
+        private long slotID;
+        private String caregiverName;
+        // why an INVALID line could not be read
+        private String reason;
+
+        public Request(int lineNumber, String patientName, String vaccineName, LocalDate date) {
+            this.lineNumber = lineNumber;
+            this.patientName = patientName;
+            this.vaccineName = vaccineName;
+            this.date = date;
+        }
+
+        // Getters
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        public String getPatientName() {
+            return patientName;
+        }
+
+        public String getVaccineName() {
+            return vaccineName;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public long getSlotID() {
+            return slotID;
+        }
+
+        public String getCaregiverName() {
+            return caregiverName;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    // A commit transaction failed, getReport() covers the ones committed before it
+    public static class CommitFailure extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Report report;
+
+        CommitFailure(Report report, SQLException cause) {
+            super("Batch stopped after " + report.transactions + " committed transaction(s)", cause);
+            this.report = report;
+        }
+
+        public Report getReport() {
+            return report;
+        }
+    }
+
+    public static class Report {
+        private final int requests;
+        private final Map<Outcome, Integer> outcomes = new EnumMap<>(Outcome.class);
+        private long solveNanos;
+        private long commitNanos;
+        private int transactions;
+
+        Report(int requests) {
+            this.requests = requests;
+        }
+
+        public int getCount(Outcome outcome) {
+            return outcomes.getOrDefault(outcome, 0);
+        }
+
+        void print(long totalNanos) {
+            int assigned = getCount(Outcome.ASSIGNED);
+            System.out.printf("%d requests: %d assigned, %d unassigned\n", requests, assigned, requests - assigned);
+            for (Map.Entry<Outcome, Integer> outcome : outcomes.entrySet()) {
+                if (outcome.getKey() != Outcome.ASSIGNED) {
+                    System.out.printf("  %-16s %d\n", outcome.getKey().name().toLowerCase(Locale.ROOT), outcome.getValue());
+                }
+            }
+            System.out.printf("solve %.1f ms, commit %.1f ms in %d transaction(s), %.0f requests/s\n",
+                    solveNanos / 1e6, commitNanos / 1e6, transactions, requests / (totalNanos / 1e9));
+        }
+    }
+}
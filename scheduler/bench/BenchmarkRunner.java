@@ -0,0 +1,140 @@
+package scheduler.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+// Smoke benchmark runner: time-boxed warmup and measurement iterations per benchmark, throughput
+// in ops/s with a rough error bound. It is not JMH: every benchmark runs in this one JVM after the
+// ones before it (no forks), the clock is read after every operation and the blackhole is a plain
+// field, so the scores only show large changes between runs on the same machine. The JSON uses
+// the field names of JMH's "-rf json" output for the few values it has.
+public class BenchmarkRunner {
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationMillis;
+    private final PrintStream report;
+    private final List<Registered> benchmarks = new ArrayList<>();
+
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis, PrintStream report) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationMillis = iterationMillis;
+        this.report = report;
+    }
+
+    public interface Benchmark {
+        void run(Blackhole bh) throws Exception;
+    }
+
+    public void add(String name, Benchmark benchmark) {
+        benchmarks.add(new Registered(name, benchmark));
+    }
+
+    public List<Result> run(Pattern filter) throws Exception {
+        List<Result> results = new ArrayList<>();
+        for (Registered registered : benchmarks) {
+            if (!filter.matcher(registered.name).find()) {
+                continue;
+            }
+            Blackhole bh = new Blackhole();
+            for (int i = 0; i < warmupIterations; i++) {
+                iteration(registered.benchmark, bh);
+            }
+            double[] scores = new double[measurementIterations];
+            for (int i = 0; i < measurementIterations; i++) {
+                scores[i] = iteration(registered.benchmark, bh);
+            }
+            Result result = new Result(registered.name, scores);
+            report.println(result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    // runs the benchmark for one iteration and returns ops/s
+    private double iteration(Benchmark benchmark, Blackhole bh) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long deadline = start + iterationMillis * 1_000_000;
+        long now;
+        do {
+            benchmark.run(bh);
+            ops++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        bh.flush();
+        return ops / ((now - start) / 1e9);
+    }
+
+    public static void writeJson(List<Result> results, Path file) throws IOException {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            sb.append(String.format(Locale.ROOT,
+                    "  {\"benchmark\": \"%s\", \"mode\": \"thrpt\", \"measurementIterations\": %d, " +
+                    "\"primaryMetric\": {\"score\": %.3f, \"scoreError\": %.3f, \"scoreUnit\": \"ops/s\"}}%s\n",
+                    r.name, r.scores.length, r.getScore(), r.getScoreError(), i + 1 < results.size() ? "," : ""));
+        }
+        sb.append("]\n");
+        Files.writeString(file, sb.toString(), StandardCharsets.UTF_8);
+    }
+
+    public static class Result {
+        private final String name;
+        private final double[] scores;
+
+        Result(String name, double[] scores) {
+            this.name = name;
+            this.scores = scores;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getScore() {
+            double sum = 0;
+            for (double score : scores) {
+                sum += score;
+            }
+            return sum / scores.length;
+        }
+
+        // half width of a 99.9% normal confidence interval, only a rough bound for a handful of
+        // iterations
+        public double getScoreError() {
+            if (scores.length < 2) {
+                return Double.NaN;
+            }
+            double mean = getScore();
+            double squares = 0;
+            for (double score : scores) {
+                squares += (score - mean) * (score - mean);
+            }
+            double stddev = Math.sqrt(squares / (scores.length - 1));
+            return 3.291 * stddev / Math.sqrt(scores.length);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-48s %15.1f +- %10.1f ops/s", name, getScore(), getScoreError());
+        }
+    }
+
+    private static class Registered {
+        private final String name;
+        private final Benchmark benchmark;
+
+        Registered(String name, Benchmark benchmark) {
+            this.name = name;
+            this.benchmark = benchmark;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package scheduler.bench;
+
+import scheduler.cache.BloomFilter;
+import scheduler.db.ConnectionManager;
+import scheduler.db.Dialect;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.Config;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+// Smoke benchmarks for the hashing helpers, model construction and every SQL path of the model
+// classes, to catch large regressions (see BenchmarkRunner for what they do not measure). The SQL
+// benchmarks run against the embedded database (Backend=embedded is the default here) and are
+// skipped if it is not available.
+//
+//   java scheduler.bench.Benchmarks [regex]
+//
+// Settings: BenchWarmupIterations (3), BenchIterations (5), BenchIterationMillis (1000),
+// BenchOutput (bench-results.json)
+public class Benchmarks {
+    private static final String PREFIX = "bm" + Long.toString(System.currentTimeMillis(), 36);
+    private static final AtomicLong counter = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        if (Config.get("Backend", null) == null) {
+            System.setProperty("Backend", "embedded");
+        }
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+        PrintStream console = System.out;
+        BenchmarkRunner runner = new BenchmarkRunner(
+                Config.getInt("BenchWarmupIterations", 3),
+                Config.getInt("BenchIterations", 5),
+                Config.getLong("BenchIterationMillis", 1000),
+                console);
+
+        addUtilBenchmarks(runner);
+        addModelBenchmarks(runner);
+        if (databaseAvailable()) {
+            addDatabaseBenchmarks(runner);
+        } else {
+            console.println("Embedded database not available, skipping db.* benchmarks");
+        }
+
+        // the model classes print progress messages, keep them out of the report
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        List<BenchmarkRunner.Result> results;
+        try {
+            results = runner.run(filter);
+        } finally {
+            System.setOut(console);
+        }
+        String output = Config.get("BenchOutput", "bench-results.json");
+        BenchmarkRunner.writeJson(results, Paths.get(output));
+        console.println("Results written to " + output);
+        System.exit(0);
+    }
+
+    private static void addUtilBenchmarks(BenchmarkRunner runner) {
+        byte[] salt = Util.generateSalt();
+        byte[] padded = new byte[16];
+        padded[0] = 42;
+        padded[1] = 7;
+        runner.add("util.Util.generateSalt", bh -> bh.consume(Util.generateSalt()));
+        runner.add("util.Util.generateHash", bh -> bh.consume(Util.generateHash("password", salt)));
+        runner.add("util.Util.trim", bh -> bh.consume(Util.trim(padded)));
+
+        // single-threaded, so the ops/s of verifyNow are the logins per second one core can check
+        PasswordHasher hasher = PasswordHasher.getInstance();
+        byte[] stored = hasher.hashNow("password", salt);
+        byte[] legacy = Util.generateHash("password", salt);
+        runner.add("util.PasswordHasher.hashNow", bh -> bh.consume(hasher.hashNow("password", salt)));
+        runner.add("util.PasswordHasher.verifyNow", bh -> bh.consume(hasher.verifyNow("password", salt, stored)));
+        runner.add("util.PasswordHasher.verifyNow.legacy", bh -> bh.consume(hasher.verifyNow("password", salt, legacy)));
+        runner.add("util.PasswordHasher.verify", bh -> bh.consume(hasher.verify("password", salt, stored)));
+
+        BloomFilter usernames = new BloomFilter(100_000, 0.01);
+        for (int i = 0; i < 100_000; i++) {
+            usernames.add("user" + i);
+        }
+        runner.add("util.BloomFilter.mightContain", bh -> bh.consume(usernames.mightContain("newuser42")));
+    }
+
+    private static void addModelBenchmarks(BenchmarkRunner runner) {
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash("password", salt);
+        runner.add("model.PatientBuilder.build", bh -> bh.consume(new Patient.PatientBuilder("bench", salt, hash).build()));
+        runner.add("model.CaregiverBuilder.build", bh -> bh.consume(new Caregiver.CaregiverBuilder("bench", salt, hash).build()));
+        runner.add("model.VaccineBuilder.build", bh -> bh.consume(new Vaccine.VaccineBuilder("bench", 10).build()));
+    }
+
+    private static void addDatabaseBenchmarks(BenchmarkRunner runner) throws Exception {
+        // fixtures
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash("pw", salt);
+        String patientName = PREFIX + "p";
+        String caregiverName = PREFIX + "c";
+        String vaccineName = PREFIX + "v";
+        new Patient.PatientBuilder(patientName, salt, hash).build().saveToDB();
+        Caregiver caregiver = new Caregiver.CaregiverBuilder(caregiverName, salt, hash).build();
+        caregiver.saveToDB();
+        Vaccine vaccine = new Vaccine.VaccineBuilder(vaccineName, 1_000_000_000).build();
+        vaccine.saveToDB();
+        Date bookingDay = Date.valueOf(LocalDate.of(2090, 1, 1));
+        caregiver.uploadAvailability(bookingDay);
+        LocalDate uploadDays = LocalDate.of(2100, 1, 1);
+
+        runner.add("db.AvailabilityBuilder.build",
+                bh -> bh.consume(new Availability.AvailabilityBuilder(caregiverName, bookingDay).build()));
+        runner.add("db.Patient.saveToDB",
+                bh -> new Patient.PatientBuilder(PREFIX + "p" + counter.incrementAndGet(), salt, hash).build().saveToDB());
+        runner.add("db.PatientGetter.get", bh -> bh.consume(new Patient.PatientGetter(patientName, "pw").get()));
+        runner.add("db.CaregiverGetter.get", bh -> bh.consume(new Caregiver.CaregiverGetter(caregiverName, "pw").get()));
+        runner.add("db.Caregiver.uploadAvailability",
+                bh -> caregiver.uploadAvailability(Date.valueOf(uploadDays.plusDays(counter.incrementAndGet()))));
+        runner.add("db.VaccineGetter.get", bh -> bh.consume(new Vaccine.VaccineGetter(vaccineName).get()));
+        runner.add("db.Vaccine.increaseAvailableDoses", bh -> vaccine.increaseAvailableDoses(1));
+        runner.add("db.AvailabilityGetter.get",
+                bh -> bh.consume(new Availability.AvailabilityGetter(caregiverName, bookingDay).get()));
+        // books the only slot of the day and gives it back, so every operation finds it free
+        runner.add("db.AvailabilityReserver.reserve+cancel", bh -> {
+            Availability appointment = new Availability.AvailabilityReserver(patientName, vaccineName, bookingDay).reserve();
+            Availability.cancel("Patient", patientName, appointment.getID());
+            bh.consume(appointment);
+        });
+    }
+
+    private static boolean databaseAvailable() {
+        if (ConnectionManager.getDialect() != Dialect.H2) {
+            return false;
+        }
+        try {
+            Connection con = ConnectionManager.getPool().borrow();
+            con.close();
+            return true;
+        } catch (Exception | LinkageError e) {
+            // a failed pool start surfaces as an ExceptionInInitializerError
+            return false;
+        }
+    }
+}
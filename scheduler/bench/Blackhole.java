@@ -0,0 +1,25 @@
+package scheduler.bench;
+
+// Consumes benchmark results so that the JIT does not drop the code that produced them as dead.
+// Cheaper and weaker than JMH's: it does not stop the JIT from folding constant inputs.
+public class Blackhole {
+    private volatile int sink;
+    private int accumulated;
+
+    public void consume(Object o) {
+        accumulated += System.identityHashCode(o);
+    }
+
+    public void consume(long value) {
+        accumulated += (int) (value ^ (value >>> 32));
+    }
+
+    public void consume(boolean value) {
+        accumulated += value ? 1 : 0;
+    }
+
+    // publish once per iteration, a volatile write per operation would dominate tiny benchmarks
+    void flush() {
+        sink = accumulated;
+    }
+}
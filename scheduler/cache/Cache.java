@@ -0,0 +1,235 @@
+package scheduler.cache;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+// Size-bounded read-through cache with expiry, for rows that are read far more often than they
+// change (accounts, vaccines).
+//
+// Entries are evicted in least-recently-used order once maxSize is reached and expire ttlMillis
+// after they were loaded. A load that finds nothing is cached too, for the shorter
+// negativeTtlMillis, so that repeated lookups of a missing key do not all go to the database.
+// Every write path of the cached table must call put() or invalidate(): a load that was running
+// while the cache was invalidated is returned to its caller but not stored.
+//
+// Each cache registers itself over JMX as scheduler:type=Cache,name=<name> and shows up in the
+// Prometheus output of scheduler.metrics.Metrics.
+public class Cache<K, V> implements CacheMXBean {
+    private static final Map<String, Cache<?, ?>> caches = new ConcurrentHashMap<>();
+    private static final Object ABSENT = new Object();
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    // access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<K, Entry> entries;
+    // bumped by every put and invalidation, see store()
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private Cache(Builder<K, V> builder) {
+        this.name = builder.name;
+        this.maxSize = builder.maxSize;
+        this.ttlNanos = builder.ttlMillis * 1_000_000;
+        this.negativeTtlNanos = builder.negativeTtlMillis * 1_000_000;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // all caches by name
+    public static Map<String, Cache<?, ?>> getAll() {
+        return new TreeMap<>(caches);
+    }
+
+    // Returns the cached value, or loads it (null when there is nothing to load) and caches it
+    public V get(K key, Loader<V> loader) throws SQLException {
+        Object cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return cached == ABSENT ? null : cast(cached);
+        }
+        misses.increment();
+        long loadedGeneration = generation.get();
+        V value = loader.load();
+        loads.increment();
+        store(key, value, loadedGeneration);
+        return value;
+    }
+
+    public void put(K key, V value) {
+        synchronized (this) {
+            generation.incrementAndGet();
+            entries.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+            evictOverflow();
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (this) {
+            generation.incrementAndGet();
+            entries.remove(key);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        synchronized (this) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private synchronized Object lookup(K key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private synchronized void store(K key, V value, long loadedGeneration) {
+        // the row may have changed while we were loading it, the next get() loads it again
+        if (generation.get() != loadedGeneration) {
+            return;
+        }
+        long ttl = value == null ? negativeTtlNanos : ttlNanos;
+        if (ttl <= 0) {
+            return;
+        }
+        entries.put(key, new Entry(value == null ? ABSENT : value, System.nanoTime() + ttl));
+        evictOverflow();
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxSize && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V cast(Object value) {
+        return (V) value;
+    }
+
+    private void register() {
+        caches.put(name, this);
+        try {
+            ObjectName objectName = new ObjectName("scheduler:type=Cache,name=" + ObjectName.quote(name));
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            }
+        } catch (Exception e) {
+            // the cache still works without JMX
+        }
+    }
+
+    // Reads the value from the database on a miss, returns null if there is none
+    public interface Loader<V> {
+        V load() throws SQLException;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expiresAt;
+
+        Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static class Builder<K, V> {
+        private final String name;
+        private int maxSize = 10_000;
+        private long ttlMillis = 5 * 60_000;
+        private long negativeTtlMillis = 0;
+
+        public Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder<K, V> maxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public Builder<K, V> ttlMillis(long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+            return this;
+        }
+
+        public Builder<K, V> negativeTtlMillis(long negativeTtlMillis) {
+            this.negativeTtlMillis = negativeTtlMillis;
+            return this;
+        }
+
+        public Cache<K, V> build() {
+            if (maxSize < 1) {
+                throw new IllegalArgumentException("maxSize must be at least 1");
+            }
+            Cache<K, V> cache = new Cache<>(this);
+            cache.register();
+            return cache;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package scheduler.cache;
+
+// Cache numbers exposed over JMX as scheduler:type=Cache,name=<cache>
+public interface CacheMXBean {
+    int getSize();
+
+    int getMaxSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadCount();
+
+    long getEvictionCount();
+
+    void invalidateAll();
+}
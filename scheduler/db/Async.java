@@ -0,0 +1,106 @@
+package scheduler.db;
+
+import scheduler.metrics.CommandMetrics;
+import scheduler.metrics.Metrics;
+import scheduler.util.Config;
+import scheduler.util.ThreadPools;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+// Runs blocking database work in the background, so that a command can start independent queries
+// together and wait for all of them:
+//
+//     CompletableFuture<Vaccine> vaccine = new Vaccine.VaccineGetter(name).getAsync();
+//     ... other work ...
+//     Vaccine v = Async.await(vaccine);
+//
+// Each call gets its own (virtual, on Java 21) thread, but at most AsyncMaxConcurrency of them
+// (PoolMaxSize, 10) run at a time, the rest wait for a permit. So background work never holds
+// more connections than the pool has, and it can't take them all away from synchronous callers
+// for long. The work is counted against the command that started it (see Metrics).
+//
+// Async work runs on another thread and can't join the caller's UnitOfWork, starting it inside
+// one is an error. Tasks should not wait for other async work themselves: with all permits taken
+// they would wait forever.
+public class Async {
+    private static final ExecutorService executor = ThreadPools.newPerTaskExecutor("async-db");
+    private static final Semaphore permits = new Semaphore(
+            Math.max(1, Config.getInt("AsyncMaxConcurrency", Config.getInt("PoolMaxSize", 10))), true);
+
+    private Async() {
+    }
+
+    public static <T> CompletableFuture<T> supply(Retry.Work<T> work) {
+        if (UnitOfWork.current() != null) {
+            throw new IllegalStateException("Async work can't take part in a unit of work");
+        }
+        CommandMetrics metrics = Metrics.current();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            Metrics.Scope scope = Metrics.attach(metrics);
+            try {
+                permits.acquireUninterruptibly();
+                try {
+                    future.complete(work.run());
+                } finally {
+                    permits.release();
+                }
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                scope.close();
+            }
+        });
+        return future;
+    }
+
+    public static CompletableFuture<Void> run(Action action) {
+        return supply(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // Waits for the result, the SQLException the work failed with is thrown as is
+    public static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    // the SQLException to throw for a failure of async work, unchecked failures are thrown right away
+    public static SQLException rethrow(Throwable failure) {
+        while (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure instanceof SQLException) {
+            return (SQLException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return new SQLException(failure);
+    }
+
+    // permits left, exported as scheduler_async_permits_available
+    public static int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    public interface Action {
+        void run() throws SQLException;
+    }
+}
@@ -0,0 +1,49 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Production backend, an Azure SQL database configured through the environment
+public class AzureSqlBackend implements Backend {
+    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+            ".database.windows.net:1433;database=" + System.getenv("DBName");
+    private final String userName = System.getenv("UserID");
+    private final String userPass = System.getenv("Password");
+
+    @Override
+    public String getName() {
+        return "azure";
+    }
+
+    @Override
+    public Dialect getDialect() {
+        return Dialect.SQL_SERVER;
+    }
+
+    @Override
+    public void initialize() {
+        try {
+            Class.forName(driverName);
+        } catch (ClassNotFoundException e) {
+            System.out.println(e.toString());
+        }
+    }
+
+    @Override
+    public Connection openConnection() throws SQLException {
+        Connection con = DriverManager.getConnection(connectionUrl, userName, userPass);
+        // Any error rolls back the whole transaction. The reservation batches turn this on
+        // themselves, and SET lasts for the session, so setting it here keeps every pooled
+        // connection the same no matter which statement ran on it last.
+        try (Statement statement = con.createStatement()) {
+            statement.execute("SET XACT_ABORT ON");
+        } catch (SQLException e) {
+            con.close();
+            throw e;
+        }
+        return con;
+    }
+}
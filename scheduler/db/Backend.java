@@ -0,0 +1,18 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Where physical connections come from. The connection pool asks the backend for new
+// connections, so the rest of the application does not care which database it runs on.
+// The backend is chosen with the Backend setting: "azure" (default) or "embedded".
+public interface Backend {
+    String getName();
+
+    Dialect getDialect();
+
+    // called once before the first connection is handed out, e.g. to create the schema
+    void initialize() throws SQLException;
+
+    Connection openConnection() throws SQLException;
+}
@@ -1,30 +1,27 @@
 package scheduler.db;
 
+import scheduler.util.Config;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
-
     private Connection con = null;
 
     public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
-        }
     }
 
+    // Borrows a connection from the shared pool, closeConnection() gives it back. Inside a
+    // UnitOfWork this is the unit of work's connection, which closeConnection() leaves open.
     public Connection createConnection() {
+        UnitOfWork work = UnitOfWork.current();
+        if (work != null) {
+            con = work.getConnection();
+            return con;
+        }
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            con = getPool().borrow();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -33,9 +30,83 @@ public class ConnectionManager {
 
     public void closeConnection() {
         try {
-            this.con.close();
+            if (this.con != null) {
+                this.con.close();
+            }
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+
+    public static ConnectionPool getPool() {
+        return PoolHolder.POOL;
+    }
+
+    public static PoolStats getPoolStats() {
+        return getPool().getStats();
+    }
+
+    public static Backend getBackend() {
+        return BackendHolder.BACKEND;
+    }
+
+    public static Dialect getDialect() {
+        return getBackend().getDialect();
+    }
+
+    // Backend=azure (default) talks to Azure SQL, Backend=embedded runs an in-process database
+    private static class BackendHolder {
+        private static final Backend BACKEND = createBackend();
+
+        private static Backend createBackend() {
+            String name = Config.get("Backend", "azure");
+            switch (name.toLowerCase()) {
+                case "azure":
+                    return new AzureSqlBackend();
+                case "embedded":
+                    return new EmbeddedBackend();
+                default:
+                    throw new IllegalArgumentException("Unknown backend: " + name);
+            }
+        }
+    }
+
+    // the pool is created (and pre-warmed) the first time a connection is needed
+    private static class PoolHolder {
+        private static final ConnectionPool POOL = createPool();
+
+        private static ConnectionPool createPool() {
+            Backend backend = getBackend();
+            // a schema that could not be brought up to date must not be used, stop right here
+            try {
+                backend.initialize();
+                migrate(backend);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not prepare the " + backend.getName() + " database", e);
+            }
+            ConnectionPool pool = new ConnectionPool.Builder(backend)
+                    .maxSize(Config.getInt("PoolMaxSize", 10))
+                    .minIdle(Config.getInt("PoolMinIdle", 2))
+                    .acquireTimeoutMillis(Config.getLong("PoolAcquireTimeoutMillis", 30_000))
+                    .idleTimeoutMillis(Config.getLong("PoolIdleTimeoutMillis", 10 * 60_000))
+                    .maxLifetimeMillis(Config.getLong("PoolMaxLifetimeMillis", 30 * 60_000))
+                    .housekeepingIntervalMillis(Config.getLong("PoolHousekeepingIntervalMillis", 30_000))
+                    .validationTimeoutSeconds(Config.getInt("PoolValidationTimeoutSeconds", 5))
+                    .build();
+            pool.registerMBean();
+            Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "connection-pool-shutdown"));
+            return pool;
+        }
+
+        // brings the schema up to date before anyone uses it, Migrate=false leaves it alone
+        private static void migrate(Backend backend) throws SQLException {
+            if (!Config.getBoolean("Migrate", true)) {
+                return;
+            }
+            Migrator migrator = new Migrator(Config.get("MigrationsLocation", "resources/migrations"), backend.getDialect());
+            try (Connection con = backend.openConnection()) {
+                migrator.migrate(con);
+            }
+        }
+    }
 }
@@ -0,0 +1,390 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+// A bounded pool of physical JDBC connections.
+// Callers borrow() a connection and give it back by calling close() on it, so the usual
+// "open, use, close" pattern keeps working while the physical connection stays open.
+public class ConnectionPool implements ConnectionPoolMXBean {
+    private final Backend backend;
+
+    private final int maxSize;
+    private final int minIdle;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final int validationTimeoutSeconds;
+
+    // most recently returned connection is handed out first, so that idle ones can age out
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    // one permit per connection that may be handed out
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+
+    // statistics
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private ConnectionPool(Builder builder) {
+        this.backend = builder.backend;
+        this.maxSize = builder.maxSize;
+        this.minIdle = Math.min(builder.minIdle, builder.maxSize);
+        this.acquireTimeoutMillis = builder.acquireTimeoutMillis;
+        this.idleTimeoutMillis = builder.idleTimeoutMillis;
+        this.maxLifetimeMillis = builder.maxLifetimeMillis;
+        this.validationTimeoutSeconds = builder.validationTimeoutSeconds;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        // pre-warm the pool so that the first commands do not pay for the handshake
+        fillToMinIdle();
+        long interval = builder.housekeepingIntervalMillis;
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        waiters.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (!acquired) {
+            timeouts.increment();
+            throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis
+                    + "ms waiting for a connection (" + getStats() + ")");
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    break;
+                }
+                discard(pooled);
+            }
+            if (pooled == null) {
+                pooled = open();
+            }
+            pooled.leased = true;
+            active.incrementAndGet();
+            borrows.increment();
+            Metrics.connectionAcquired(System.nanoTime() - start);
+            return pooled.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // called through Connection.close() on the handed out proxy
+    private void giveBack(PooledConnection pooled) {
+        if (!pooled.leased) {
+            return;     // closing twice is a no-op, like for a real connection
+        }
+        pooled.leased = false;
+        active.decrementAndGet();
+        try {
+            boolean reusable = !closed && !pooled.physical.isClosed() && !isExpired(pooled);
+            if (reusable && !pooled.physical.getAutoCommit()) {
+                // never leak an open transaction to the next borrower
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (reusable) {
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            } else {
+                discard(pooled);
+            }
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (isExpired(pooled)) {
+            return false;
+        }
+        try {
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledConnection pooled) {
+        return maxLifetimeMillis > 0 && System.currentTimeMillis() - pooled.createdAt >= maxLifetimeMillis;
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection physical = backend.openConnection();
+        total.incrementAndGet();
+        created.increment();
+        return new PooledConnection(physical);
+    }
+
+    private void discard(PooledConnection pooled) {
+        total.decrementAndGet();
+        evicted.increment();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // nothing to do, the connection is gone either way
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> it = idle.descendingIterator();   // oldest first
+        while (it.hasNext()) {
+            PooledConnection pooled = it.next();
+            boolean surplus = idle.size() > minIdle && now - pooled.lastUsed >= idleTimeoutMillis;
+            if ((surplus || isExpired(pooled)) && idle.remove(pooled)) {
+                discard(pooled);
+            }
+        }
+        fillToMinIdle();
+    }
+
+    private void fillToMinIdle() {
+        while (!closed && idle.size() < minIdle && total.get() < maxSize) {
+            try {
+                idle.offerLast(open());
+            } catch (SQLException e) {
+                System.out.println("Could not open pooled connection: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    public PoolStats getStats() {
+        return new PoolStats(maxSize, total.get(), active.get(), idle.size(), waiters.get(),
+                borrows.sum(), timeouts.sum(), created.sum(), evicted.sum(),
+                totalWaitNanos.sum(), maxWaitNanos.get());
+    }
+
+    // JMX attributes
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return active.get();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    @Override
+    public int getWaiters() {
+        return waiters.get();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrows.sum();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public double getAverageWaitMillis() {
+        return getStats().getAverageWaitMillis();
+    }
+
+    @Override
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("scheduler:type=ConnectionPool");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            System.out.println("Could not register connection pool MBean: " + e.getMessage());
+        }
+    }
+
+    private class PooledConnection implements InvocationHandler {
+        private final Connection physical;
+        private final Connection proxy;
+        private final long createdAt;
+        private volatile long lastUsed;
+        private volatile boolean leased;
+        // traced queries whose result set was not read to the end, see JdbcInstrumentation
+        private final List<SqlTracer.Execution> pending = SqlTracer.isEnabled() ? new ArrayList<>() : null;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsed = createdAt;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (pending != null) {
+                        JdbcInstrumentation.finishAll(pending);
+                    }
+                    giveBack(this);
+                    return null;
+                case "isClosed":
+                    return !leased || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical;
+                default:
+                    break;
+            }
+            if (!leased) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                Object result = method.invoke(physical, args);
+                if (result instanceof Statement) {
+                    // prepareStatement, createStatement, prepareCall
+                    String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                    return JdbcInstrumentation.wrapStatement((Statement) result, method.getReturnType(), sql, pending);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    public static class Builder {
+        private final Backend backend;
+        private int maxSize = 10;
+        private int minIdle = 2;
+        private long acquireTimeoutMillis = 30_000;
+        private long idleTimeoutMillis = 10 * 60_000;
+        private long maxLifetimeMillis = 30 * 60_000;
+        private long housekeepingIntervalMillis = 30_000;
+        private int validationTimeoutSeconds = 5;
+
+        public Builder(Backend backend) {
+            this.backend = backend;
+        }
+
+        public Builder maxSize(int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("Pool size must be positive!");
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public Builder minIdle(int minIdle) {
+            this.minIdle = Math.max(0, minIdle);
+            return this;
+        }
+
+        public Builder acquireTimeoutMillis(long acquireTimeoutMillis) {
+            this.acquireTimeoutMillis = acquireTimeoutMillis;
+            return this;
+        }
+
+        public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        public Builder maxLifetimeMillis(long maxLifetimeMillis) {
+            this.maxLifetimeMillis = maxLifetimeMillis;
+            return this;
+        }
+
+        public Builder housekeepingIntervalMillis(long housekeepingIntervalMillis) {
+            this.housekeepingIntervalMillis = Math.max(1, housekeepingIntervalMillis);
+            return this;
+        }
+
+        public Builder validationTimeoutSeconds(int validationTimeoutSeconds) {
+            this.validationTimeoutSeconds = validationTimeoutSeconds;
+            return this;
+        }
+
+        public ConnectionPool build() {
+            return new ConnectionPool(this);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package scheduler.db;
+
+// Connection pool numbers exposed over JMX (jconsole / jcmd) for tuning
+public interface ConnectionPoolMXBean {
+    int getMaxSize();
+
+    int getTotalConnections();
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getWaiters();
+
+    long getBorrowCount();
+
+    long getTimeoutCount();
+
+    double getAverageWaitMillis();
+
+    double getMaxWaitMillis();
+}
@@ -0,0 +1,9 @@
+package scheduler.db;
+
+// SQL flavours the model classes know how to talk to
+public enum Dialect {
+    // Azure SQL / SQL Server, supports T-SQL batches, OUTPUT clauses and table hints
+    SQL_SERVER,
+    // embedded H2 running in MSSQLServer compatibility mode, plain statements only
+    H2
+}
@@ -0,0 +1,40 @@
+package scheduler.db;
+
+import scheduler.util.Config;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+// In-process H2 database in SQL Server compatibility mode, for running the application, load
+// tests and benchmarks without network access. The schema is created by the migrations in
+// resources/migrations when the pool starts (see Migrator). Needs the H2 jar on the class path.
+public class EmbeddedBackend implements Backend {
+    private final String driverName = "org.h2.Driver";
+    private final String connectionUrl = Config.get("EmbeddedUrl",
+            "jdbc:h2:mem:scheduler;MODE=MSSQLServer;DB_CLOSE_DELAY=-1");
+
+    @Override
+    public String getName() {
+        return "embedded";
+    }
+
+    @Override
+    public Dialect getDialect() {
+        return Dialect.H2;
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        try {
+            Class.forName(driverName);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("The embedded backend needs the H2 driver on the class path", e);
+        }
+    }
+
+    @Override
+    public Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(connectionUrl, "sa", "");
+    }
+}
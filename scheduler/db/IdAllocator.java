@@ -0,0 +1,72 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands out unique 64-bit IDs from a database sequence using the hi/lo scheme.
+// The sequence must be declared with INCREMENT BY blockSize, so every NEXT VALUE FOR
+// reserves a whole block [value, value + blockSize) for this process. IDs inside a block
+// are handed out from memory without locking; the database is only asked for the next
+// block once the current one is used up.
+public class IdAllocator {
+    private final String sequenceName;
+    private final int blockSize;
+    private volatile Block block = new Block(0, 0);
+
+    public IdAllocator(String sequenceName, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive!");
+        }
+        this.sequenceName = sequenceName;
+        this.blockSize = blockSize;
+    }
+
+    public long next() throws SQLException {
+        while (true) {
+            Block current = block;
+            long id = current.next.getAndIncrement();
+            if (id < current.end) {
+                return id;
+            }
+            // only one thread fetches the next block, the others retry on it afterwards
+            synchronized (this) {
+                if (block == current) {
+                    block = fetchBlock();
+                }
+            }
+        }
+    }
+
+    private Block fetchBlock() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String nextBlock = "SELECT NEXT VALUE FOR " + sequenceName;
+        try {
+            PreparedStatement statement = con.prepareStatement(nextBlock);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException("Sequence " + sequenceName + " returned no value");
+            }
+            long start = resultSet.getLong(1);
+            return new Block(start, start + blockSize);
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
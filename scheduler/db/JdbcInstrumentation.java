@@ -0,0 +1,179 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Wraps the statements handed out by pooled connections so that every execution and every
+// fetched row is counted against the command that is running (see scheduler.metrics.Metrics).
+// With SqlTrace=true the wrappers also remember the SQL text and bound parameters and report each
+// execution to SqlTracer; executions whose result set is still open are kept in the connection's
+// pending list and finished when it goes back to the pool.
+class JdbcInstrumentation {
+
+    static Statement wrapStatement(Statement statement, Class<?> type, String sql, List<SqlTracer.Execution> pending) {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                new Class<?>[]{type}, new StatementHandler(statement, sql, pending));
+    }
+
+    static void finishAll(List<SqlTracer.Execution> pending) {
+        synchronized (pending) {
+            for (SqlTracer.Execution execution : pending) {
+                execution.finish();
+            }
+            pending.clear();
+        }
+    }
+
+    private static ResultSet wrapResultSet(ResultSet resultSet, SqlTracer.Execution execution) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, new ResultSetHandler(resultSet, execution));
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String sql;
+        private final List<SqlTracer.Execution> pending;
+        private final Map<Integer, Object> parameters;
+        private int batchSize;
+        private SqlTracer.Execution open;
+
+        StatementHandler(Statement statement, String sql, List<SqlTracer.Execution> pending) {
+            this.statement = statement;
+            this.sql = sql;
+            this.pending = pending;
+            this.parameters = pending == null ? null : new TreeMap<>();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (parameters != null) {
+                trackParameters(name, args);
+            }
+            if (!name.startsWith("execute")) {
+                Object result = call(method, args);
+                return result instanceof ResultSet ? wrapResultSet((ResultSet) result, null) : result;
+            }
+
+            SqlTracer.Execution execution = null;
+            if (pending != null) {
+                finishOpen();
+                // Statement.execute(sql) and friends carry the text themselves
+                String text = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+                execution = SqlTracer.begin(text, parameters, batchSize);
+            }
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = call(method, args);
+                failed = false;
+                if (result instanceof ResultSet) {
+                    if (execution != null) {
+                        open = execution;
+                        synchronized (pending) {
+                            pending.add(execution);
+                        }
+                    }
+                    return wrapResultSet((ResultSet) result, execution);
+                }
+                if (execution != null) {
+                    execution.finish(updateCount(result));
+                }
+                return result;
+            } finally {
+                Metrics.statementExecuted(System.nanoTime() - start, failed);
+                if (failed && execution != null) {
+                    execution.finish();
+                }
+                if (name.equals("executeBatch")) {
+                    batchSize = 0;
+                }
+            }
+        }
+
+        private void trackParameters(String name, Object[] args) {
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            } else if (name.equals("addBatch")) {
+                batchSize++;
+            } else if (name.equals("close")) {
+                finishOpen();
+            }
+        }
+
+        private void finishOpen() {
+            if (open != null) {
+                open.finish();
+                open = null;
+            }
+        }
+
+        private static long updateCount(Object result) {
+            if (result instanceof Integer || result instanceof Long) {
+                return Math.max(0, ((Number) result).longValue());
+            }
+            long total = 0;
+            if (result instanceof int[]) {
+                for (int count : (int[]) result) {
+                    total += Math.max(0, count);
+                }
+            } else if (result instanceof long[]) {
+                for (long count : (long[]) result) {
+                    total += Math.max(0, count);
+                }
+            }
+            return total;
+        }
+
+        private Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final SqlTracer.Execution execution;
+
+        ResultSetHandler(ResultSet resultSet, SqlTracer.Execution execution) {
+            this.resultSet = resultSet;
+            this.execution = execution;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            try {
+                Object result = method.invoke(resultSet, args);
+                if (method.getName().equals("next")) {
+                    if (Boolean.TRUE.equals(result)) {
+                        Metrics.rowFetched();
+                        if (execution != null) {
+                            execution.rowFetched();
+                        }
+                    } else if (execution != null) {
+                        execution.finish();
+                    }
+                } else if (execution != null && method.getName().equals("close")) {
+                    execution.finish();
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package scheduler.db;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+// Applies the schema migrations in resources/migrations (MigrationsLocation) at startup.
+//
+// Migrations are named V<version>__<description>.sql and run in version order, each one in its own
+// transaction, and are recorded in the SchemaMigrations table with a checksum of their text. A
+// migration that was changed after it had been applied stops the startup. A file named
+// V<version>__<description>.<dialect>.sql (h2, sqlserver) replaces the plain one on that database,
+// for statements like filtered indexes that only SQL Server understands.
+//
+// A database that was created by hand from the V1 script before migrations existed is recorded
+// as being at V1 without running it again, if its tables and columns are exactly the ones V1
+// creates. Any other existing schema stops the startup instead of being taken for V1, because the
+// later migrations would then run against tables they do not expect.
+public class Migrator {
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(\\w+?)(?:\\.(h2|sqlserver))?\\.sql");
+    private static final String LOCK_NAME = "SchemaMigrations";
+    private static final Pattern CREATE_TABLE = Pattern.compile("(?i)^CREATE\\s+TABLE\\s+(\\w+)\\s*\\(");
+    private static final Pattern COLUMN = Pattern.compile("^\\s*(\\w+)\\s");
+    private static final Set<String> CONSTRAINT_KEYWORDS = Set.of("PRIMARY", "UNIQUE", "CHECK", "FOREIGN", "CONSTRAINT");
+
+    private final String location;
+    private final Dialect dialect;
+
+    public Migrator(String location, Dialect dialect) {
+        this.location = location;
+        this.dialect = dialect;
+    }
+
+    // Applies all pending migrations and returns how many were run
+    public int migrate(Connection con) throws SQLException {
+        List<Migration> migrations;
+        try {
+            migrations = findMigrations();
+        } catch (IOException e) {
+            throw new SQLException("Could not read migrations from " + location, e);
+        }
+        boolean autoCommit = con.getAutoCommit();
+        lock(con);
+        try {
+            Map<Integer, Long> applied = readApplied(con, migrations);
+            int count = 0;
+            for (Migration migration : migrations) {
+                Long checksum = applied.get(migration.version);
+                if (checksum != null) {
+                    if (checksum != migration.checksum) {
+                        throw new SQLException("Migration " + migration.fileName + " was changed after it was applied");
+                    }
+                    continue;
+                }
+                apply(con, migration);
+                count++;
+            }
+            return count;
+        } finally {
+            con.setAutoCommit(autoCommit);
+            unlock(con);
+        }
+    }
+
+    public List<Migration> findMigrations() throws IOException {
+        String suffix = dialect == Dialect.SQL_SERVER ? "sqlserver" : "h2";
+        Path directory = Paths.get(location);
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Migration directory not found: " + location);
+        }
+        Map<Integer, Migration> byVersion = new TreeMap<>();
+        Map<Integer, Migration> dialectSpecific = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "V*.sql")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                Matcher m = FILE_NAME.matcher(fileName);
+                if (!m.matches() || (m.group(3) != null && !m.group(3).equals(suffix))) {
+                    continue;
+                }
+                int version = Integer.parseInt(m.group(1));
+                Migration migration = new Migration(version, m.group(2).replace('_', ' '), fileName,
+                        Files.readString(file, StandardCharsets.UTF_8));
+                Migration existing = (m.group(3) == null ? byVersion : dialectSpecific).put(version, migration);
+                if (existing != null) {
+                    throw new IOException("Two migrations with version " + version + ": "
+                            + existing.fileName + " and " + fileName);
+                }
+            }
+        }
+        byVersion.putAll(dialectSpecific);
+        return new ArrayList<>(byVersion.values());
+    }
+
+    private void apply(Connection con, Migration migration) throws SQLException {
+        long start = System.currentTimeMillis();
+        con.setAutoCommit(false);
+        try {
+            SqlScript.of(migration.fileName, migration.text).execute(con);
+            String record = "INSERT INTO SchemaMigrations (Version, Description, Checksum, ExecutionMillis) VALUES (?, ?, ?, ?)";
+            try (PreparedStatement statement = con.prepareStatement(record)) {
+                statement.setInt(1, migration.version);
+                statement.setString(2, migration.description);
+                statement.setLong(3, migration.checksum);
+                statement.setLong(4, System.currentTimeMillis() - start);
+                statement.executeUpdate();
+            }
+            con.commit();
+            System.out.println("Applied migration " + migration.fileName);
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        }
+    }
+
+    private Map<Integer, Long> readApplied(Connection con, List<Migration> migrations) throws SQLException {
+        Map<Integer, Long> applied = new HashMap<>();
+        if (!tableExists(con, "SCHEMAMIGRATIONS")) {
+            try (Statement statement = con.createStatement()) {
+                statement.execute("CREATE TABLE SchemaMigrations ("
+                        + "Version int PRIMARY KEY, "
+                        + "Description varchar(255) NOT NULL, "
+                        + "Checksum bigint NOT NULL, "
+                        + "ExecutionMillis bigint NOT NULL, "
+                        + "AppliedAt datetime NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+            }
+            if (tableExists(con, "CAREGIVERS") && !migrations.isEmpty() && migrations.get(0).version == 1) {
+                checkBaseline(con, migrations.get(0));
+                baseline(con, migrations.get(0));
+                applied.put(1, migrations.get(0).checksum);
+            }
+            return applied;
+        }
+        try (Statement statement = con.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT Version, Checksum FROM SchemaMigrations")) {
+            while (resultSet.next()) {
+                applied.put(resultSet.getInt(1), resultSet.getLong(2));
+            }
+        }
+        return applied;
+    }
+
+    // Compares the columns of every table the V1 script creates with the database
+    private static void checkBaseline(Connection con, Migration first) throws SQLException {
+        for (Map.Entry<String, Set<String>> table : createdTables(first.text).entrySet()) {
+            Set<String> columns = new TreeSet<>();
+            String findColumns = "SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS WHERE UPPER(TABLE_NAME) = ?";
+            try (PreparedStatement statement = con.prepareStatement(findColumns)) {
+                statement.setString(1, table.getKey());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        columns.add(resultSet.getString(1).toUpperCase(Locale.ROOT));
+                    }
+                }
+            }
+            if (!columns.equals(table.getValue())) {
+                throw new SQLException("Existing schema does not match " + first.fileName + ": table " + table.getKey()
+                        + " has columns " + columns + ", expected " + table.getValue()
+                        + ". Bring it to the V1 schema or record the applied migrations in SchemaMigrations by hand.");
+            }
+        }
+    }
+
+    // upper case table name -> upper case column names, for the CREATE TABLE statements of a script
+    static Map<String, Set<String>> createdTables(String text) {
+        Map<String, Set<String>> tables = new TreeMap<>();
+        for (String sql : SqlScript.of("V1", text).getStatements()) {
+            Matcher table = CREATE_TABLE.matcher(sql);
+            if (!table.find()) {
+                continue;
+            }
+            Set<String> columns = new TreeSet<>();
+            String body = sql.substring(table.end(), sql.lastIndexOf(')'));
+            for (String definition : body.split("\\n")) {
+                Matcher column = COLUMN.matcher(definition);
+                if (column.find() && !CONSTRAINT_KEYWORDS.contains(column.group(1).toUpperCase(Locale.ROOT))) {
+                    columns.add(column.group(1).toUpperCase(Locale.ROOT));
+                }
+            }
+            tables.put(table.group(1).toUpperCase(Locale.ROOT), columns);
+        }
+        return tables;
+    }
+
+    private void baseline(Connection con, Migration first) throws SQLException {
+        String record = "INSERT INTO SchemaMigrations (Version, Description, Checksum, ExecutionMillis) VALUES (?, ?, ?, 0)";
+        try (PreparedStatement statement = con.prepareStatement(record)) {
+            statement.setInt(1, first.version);
+            statement.setString(2, first.description);
+            statement.setLong(3, first.checksum);
+            statement.executeUpdate();
+        }
+        System.out.println("Existing schema recorded as " + first.fileName);
+    }
+
+    private static boolean tableExists(Connection con, String upperCaseName) throws SQLException {
+        String findTable = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_NAME) = ?";
+        try (PreparedStatement statement = con.prepareStatement(findTable)) {
+            statement.setString(1, upperCaseName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getInt(1) > 0;
+            }
+        }
+    }
+
+    // Several application servers may start at once, on SQL Server only one of them migrates at
+    // a time. The embedded database belongs to a single process.
+    private void lock(Connection con) throws SQLException {
+        if (dialect != Dialect.SQL_SERVER) {
+            return;
+        }
+        String getLock = "{? = call sp_getapplock(?, 'Exclusive', 'Session', 60000)}";
+        try (CallableStatement statement = con.prepareCall(getLock)) {
+            statement.registerOutParameter(1, Types.INTEGER);
+            statement.setString(2, LOCK_NAME);
+            statement.execute();
+            if (statement.getInt(1) < 0) {
+                throw new SQLException("Timed out waiting for another process to finish migrating");
+            }
+        }
+    }
+
+    private void unlock(Connection con) throws SQLException {
+        if (dialect != Dialect.SQL_SERVER) {
+            return;
+        }
+        try (CallableStatement statement = con.prepareCall("{call sp_releaseapplock(?, 'Session')}")) {
+            statement.setString(1, LOCK_NAME);
+            statement.execute();
+        }
+    }
+
+    public static class Migration {
+        private final int version;
+        private final String description;
+        private final String fileName;
+        private final String text;
+        private final long checksum;
+
+        private Migration(int version, String description, String fileName, String text) {
+            this.version = version;
+            this.description = description;
+            this.fileName = fileName;
+            this.text = text;
+            // line endings do not count, so a checkout on Windows does not look like an edit
+            CRC32 crc = new CRC32();
+            crc.update(text.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+            this.checksum = crc.getValue();
+        }
+
+        // Getters
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package scheduler.db;
+
+// Point-in-time snapshot of the connection pool counters
+public class PoolStats {
+    private final int maxSize;
+    private final int total;
+    private final int active;
+    private final int idle;
+    private final int waiters;
+    private final long borrows;
+    private final long timeouts;
+    private final long created;
+    private final long evicted;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    PoolStats(int maxSize, int total, int active, int idle, int waiters, long borrows, long timeouts,
+              long created, long evicted, long totalWaitNanos, long maxWaitNanos) {
+        this.maxSize = maxSize;
+        this.total = total;
+        this.active = active;
+        this.idle = idle;
+        this.waiters = waiters;
+        this.borrows = borrows;
+        this.timeouts = timeouts;
+        this.created = created;
+        this.evicted = evicted;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    // Getters
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getWaiters() {
+        return waiters;
+    }
+
+    public long getBorrows() {
+        return borrows;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getEvicted() {
+        return evicted;
+    }
+
+    public double getAverageWaitMillis() {
+        return borrows == 0 ? 0.0 : totalWaitNanos / 1_000_000.0 / borrows;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats{" +
+                "max=" + maxSize +
+                ", total=" + total +
+                ", active=" + active +
+                ", idle=" + idle +
+                ", waiters=" + waiters +
+                ", borrows=" + borrows +
+                ", timeouts=" + timeouts +
+                ", created=" + created +
+                ", evicted=" + evicted +
+                String.format(", avgWait=%.3fms, maxWait=%.3fms", getAverageWaitMillis(), getMaxWaitMillis()) +
+                '}';
+    }
+}
@@ -0,0 +1,78 @@
+package scheduler.db;
+
+import scheduler.util.Config;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs database work again when it lost against another transaction: deadlock victims,
+// serialization failures and optimistic version conflicts (SQLState class 40). At most
+// RetryAttempts (5) tries, waiting a random time between half and all of RetryBackoffMillis (10)
+// times 2^attempt, capped at RetryMaxBackoffMillis (500), so that colliding writers spread out.
+//
+// Inside a UnitOfWork the work runs once: the failed transaction belongs to the unit of work and
+// only its owner can start it over.
+public class Retry {
+    // serialization failure, also what a stale Version is reported as
+    public static final String CONFLICT = "40001";
+    // "Transaction was deadlocked ... and has been chosen as the deadlock victim"
+    private static final int SQL_SERVER_DEADLOCK = 1205;
+
+    private static final int ATTEMPTS = Math.max(1, Config.getInt("RetryAttempts", 5));
+    private static final long BACKOFF_MILLIS = Config.getLong("RetryBackoffMillis", 10);
+    private static final long MAX_BACKOFF_MILLIS = Config.getLong("RetryMaxBackoffMillis", 500);
+
+    private static final LongAdder retries = new LongAdder();
+
+    private Retry() {
+    }
+
+    public static <T> T run(Work<T> work) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return work.run();
+            } catch (SQLException e) {
+                if (attempt >= ATTEMPTS || UnitOfWork.current() != null || !isRetryable(e)) {
+                    throw e;
+                }
+                retries.increment();
+                backoff(attempt);
+            }
+        }
+    }
+
+    // true if the failure (or one of its causes) says that trying again can succeed
+    public static boolean isRetryable(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                SQLException sqlException = (SQLException) t;
+                String state = sqlException.getSQLState();
+                if ((state != null && state.startsWith("40")) || sqlException.getErrorCode() == SQL_SERVER_DEADLOCK) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // attempts that failed and were tried again, over all callers
+    public static long getRetryCount() {
+        return retries.sum();
+    }
+
+    private static void backoff(int attempt) throws SQLException {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BACKOFF_MILLIS << Math.min(attempt, 20));
+        long millis = ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    public interface Work<T> {
+        T run() throws SQLException;
+    }
+}
@@ -0,0 +1,100 @@
+package scheduler.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// A .sql file split into single statements (separated by ';' or a GO line), "--" comments removed
+public class SqlScript {
+    private final String name;
+    private final String text;
+    private final List<String> statements;
+
+    private SqlScript(String name, String text) {
+        this.name = name;
+        this.text = text;
+        this.statements = split(text);
+    }
+
+    // looks for the script on the file system first, then on the class path
+    public static SqlScript load(String location) throws IOException {
+        Path path = Paths.get(location);
+        if (Files.exists(path)) {
+            return new SqlScript(path.getFileName().toString(), Files.readString(path, StandardCharsets.UTF_8));
+        }
+        String resource = location.startsWith("/") ? location : "/" + location;
+        try (InputStream in = SqlScript.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("SQL script not found: " + location);
+            }
+            return new SqlScript(path.getFileName().toString(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    public static SqlScript of(String name, String text) {
+        return new SqlScript(name, text);
+    }
+
+    public void execute(Connection con) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            for (String sql : statements) {
+                try {
+                    statement.execute(sql);
+                } catch (SQLException e) {
+                    throw new SQLException("Failed to run " + name + ": " + sql, e);
+                }
+            }
+        }
+    }
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<String> getStatements() {
+        return statements;
+    }
+
+    private static List<String> split(String text) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : text.split("\\r?\\n")) {
+            int comment = line.indexOf("--");
+            String code = comment >= 0 ? line.substring(0, comment) : line;
+            if (code.trim().equalsIgnoreCase("GO")) {
+                flush(current, statements);
+                continue;
+            }
+            int end;
+            while ((end = code.indexOf(';')) >= 0) {
+                current.append(code, 0, end);
+                flush(current, statements);
+                code = code.substring(end + 1);
+            }
+            current.append(code).append('\n');
+        }
+        flush(current, statements);
+        return statements;
+    }
+
+    private static void flush(StringBuilder current, List<String> statements) {
+        String sql = current.toString().trim();
+        if (!sql.isEmpty()) {
+            statements.add(sql);
+        }
+        current.setLength(0);
+    }
+}
@@ -0,0 +1,288 @@
+package scheduler.db;
+
+import scheduler.util.Config;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Statement tracing, switched on with SqlTrace=true.
+//
+// The JDBC wrappers handed out by the pool report every execution here with its SQL text, bound
+// parameters, time, rows fetched and the model method that issued it. Executions slower than
+// SlowQueryMillis (200) are appended to SlowQueryLog (slow-queries.log), and all executions are
+// aggregated per statement shape (the SQL with literals replaced by ?). The shape report is
+// available from toText(), on /api/sql-stats in server mode and is written to SqlStatsFile
+// (sql-stats.txt) when the process exits.
+public class SqlTracer {
+    private static final boolean ENABLED = Config.getBoolean("SqlTrace", false);
+    private static final long SLOW_NANOS = Config.getLong("SlowQueryMillis", 200) * 1_000_000;
+    private static final int MAX_PARAMETER_LENGTH = 64;
+
+    // columns whose values never end up in the log, next to the byte[] parameters (salts, hashes)
+    private static final Pattern SENSITIVE_COLUMN = Pattern.compile("(?i)(salt|hash|password)\\w*");
+    private static final Pattern ASSIGNED_PARAMETER = Pattern.compile("(\\w+)\\s*(=|<>|!=)\\s*\\?$");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w@])-?\\d+(\\.\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+
+    private static final ConcurrentHashMap<String, ShapeStats> shapes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Set<Integer>> sensitivePositions = new ConcurrentHashMap<>();
+    private static final StackWalker walker = StackWalker.getInstance();
+    private static BufferedWriter slowLog;
+
+    static {
+        if (ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(SqlTracer::writeStats, "sql-stats"));
+        }
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    public static List<ShapeStats> getShapes() {
+        List<ShapeStats> list = new ArrayList<>(shapes.values());
+        list.sort(Comparator.comparingLong(ShapeStats::getTotalNanos).reversed());
+        return list;
+    }
+
+    public static void reset() {
+        shapes.clear();
+    }
+
+    // per shape, most expensive first
+    public static String toText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%10s%12s%10s%10s%10s  %s%n",
+                "count", "total ms", "mean ms", "max ms", "rows/op", "statement"));
+        for (ShapeStats s : getShapes()) {
+            sb.append(String.format(Locale.ROOT, "%10d%12.1f%10.2f%10.2f%10.1f  %s%n",
+                    s.getCount(), s.getTotalNanos() / 1e6, s.getMeanMillis(), s.getMaxNanos() / 1e6,
+                    s.getRowsPerExecution(), s.getShape()));
+            sb.append(String.format(Locale.ROOT, "%54s  from %s%n", "", String.join(", ", s.getCallers())));
+        }
+        return sb.toString();
+    }
+
+    static Execution begin(String sql, Map<Integer, Object> parameters, int batchSize) {
+        return new Execution(sql, describeParameters(sql, parameters, batchSize), caller());
+    }
+
+    // the statement text with literals and IN lists collapsed, so that the same query with
+    // different values ends up in one bucket
+    static String shapeOf(String sql) {
+        String shape = sql == null ? "<unknown>" : sql.replaceAll("\\s+", " ").trim();
+        shape = STRING_LITERAL.matcher(shape).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        return IN_LIST.matcher(shape).replaceAll("IN (?)");
+    }
+
+    private static void record(Execution execution) {
+        String shape = shapeOf(execution.sql);
+        shapes.computeIfAbsent(shape, ShapeStats::new).record(execution);
+        if (execution.nanos >= SLOW_NANOS) {
+            logSlow(execution);
+        }
+    }
+
+    private static synchronized void logSlow(Execution execution) {
+        try {
+            if (slowLog == null) {
+                slowLog = Files.newBufferedWriter(Paths.get(Config.get("SlowQueryLog", "slow-queries.log")),
+                        StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            slowLog.write(String.format(Locale.ROOT, "%s %.1f ms rows=%d %s: %s %s%n", LocalDateTime.now(),
+                    execution.nanos / 1e6, execution.rows, execution.caller,
+                    execution.sql.replaceAll("\\s+", " ").trim(), execution.parameters));
+            slowLog.flush();
+        } catch (IOException e) {
+            System.out.println("Could not write the slow query log: " + e.getMessage());
+        }
+    }
+
+    private static void writeStats() {
+        Path file = Paths.get(Config.get("SqlStatsFile", "sql-stats.txt"));
+        try {
+            Files.writeString(file, toText(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("Could not write SQL statistics: " + e.getMessage());
+        }
+    }
+
+    // the first frame outside the JDBC layer, e.g. Availability.AvailabilityBuilder.generateID
+    private static String caller() {
+        return walker.walk(frames -> frames
+                .filter(frame -> !isInfrastructure(frame.getClassName()))
+                .findFirst()
+                .map(frame -> {
+                    String className = frame.getClassName();
+                    String simpleName = className.substring(className.lastIndexOf('.') + 1).replace('$', '.');
+                    return simpleName + "." + frame.getMethodName();
+                })
+                .orElse("<unknown>"));
+    }
+
+    private static boolean isInfrastructure(String className) {
+        return className.startsWith("scheduler.db.") || className.startsWith("java.")
+                || className.startsWith("jdk.") || className.startsWith("sun.")
+                || className.startsWith("com.sun.") || className.contains("$Proxy");
+    }
+
+    private static String describeParameters(String sql, Map<Integer, Object> parameters, int batchSize) {
+        if (parameters.isEmpty()) {
+            return batchSize > 0 ? "[batch of " + batchSize + "]" : "[]";
+        }
+        Set<Integer> sensitive = sql == null ? Set.of() : sensitivePositions.computeIfAbsent(sql, SqlTracer::findSensitive);
+        StringBuilder sb = new StringBuilder(batchSize > 0 ? "[batch of " + batchSize + ", last " : "[");
+        boolean first = true;
+        for (Map.Entry<Integer, Object> entry : parameters.entrySet()) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(entry.getKey()).append('=');
+            Object value = entry.getValue();
+            if (value instanceof byte[] || sensitive.contains(entry.getKey())) {
+                sb.append("<redacted>");
+            } else if (value == null) {
+                sb.append("NULL");
+            } else if (value instanceof String) {
+                String text = (String) value;
+                if (text.length() > MAX_PARAMETER_LENGTH) {
+                    text = text.substring(0, MAX_PARAMETER_LENGTH) + "...";
+                }
+                sb.append('\'').append(text).append('\'');
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    // positions of the parameters compared with or assigned to a credential column
+    private static Set<Integer> findSensitive(String sql) {
+        Set<Integer> positions = new HashSet<>();
+        int position = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) != '?') {
+                continue;
+            }
+            position++;
+            Matcher m = ASSIGNED_PARAMETER.matcher(sql.substring(Math.max(0, i - 64), i + 1));
+            if (m.find() && SENSITIVE_COLUMN.matcher(m.group(1)).matches()) {
+                positions.add(position);
+            }
+        }
+        return positions;
+    }
+
+    // One execution of a statement. Queries are finished when their result set is exhausted or
+    // closed (or the connection goes back to the pool), so that the rows and fetch time count too.
+    static class Execution {
+        private final String sql;
+        private final String parameters;
+        private final String caller;
+        private final long start = System.nanoTime();
+        private long nanos;
+        private long rows;
+        private boolean finished;
+
+        private Execution(String sql, String parameters, String caller) {
+            this.sql = sql == null ? "<unknown>" : sql;
+            this.parameters = parameters;
+            this.caller = caller;
+        }
+
+        void rowFetched() {
+            rows++;
+        }
+
+        void finish(long rowCount) {
+            rows += rowCount;
+            finish();
+        }
+
+        synchronized void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            nanos = System.nanoTime() - start;
+            record(this);
+        }
+    }
+
+    public static class ShapeStats {
+        private final String shape;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final Set<String> callers = ConcurrentHashMap.newKeySet();
+
+        private ShapeStats(String shape) {
+            this.shape = shape;
+        }
+
+        private void record(Execution execution) {
+            count.increment();
+            totalNanos.add(execution.nanos);
+            rows.add(execution.rows);
+            maxNanos.accumulateAndGet(execution.nanos, Math::max);
+            callers.add(execution.caller);
+        }
+
+        public String getShape() {
+            return shape;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0.0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        public double getRowsPerExecution() {
+            long n = count.sum();
+            return n == 0 ? 0.0 : (double) rows.sum() / n;
+        }
+
+        public Set<String> getCallers() {
+            return new TreeSet<>(callers);
+        }
+    }
+}
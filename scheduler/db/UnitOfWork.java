@@ -0,0 +1,172 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// One connection and one transaction for everything an operation does on the calling thread:
+//
+//     try (UnitOfWork work = UnitOfWork.begin()) {
+//         ... model calls ...
+//         work.commit();
+//     }
+//
+// While a unit of work is open, ConnectionManager.createConnection() on the same thread returns
+// its connection, so the model classes take part without knowing about it. Their close(),
+// setAutoCommit() and commit() calls are ignored; a rollback() rolls back the whole unit of work
+// and commit() then fails. Closing without commit() rolls back.
+//
+// Work that must only happen once the data is committed (caches, in-memory indexes) goes through
+// afterCommit(). begin() inside an open unit of work joins it: only the outermost one commits.
+public class UnitOfWork implements AutoCloseable {
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+
+    private final UnitOfWork outer;
+    private final Connection physical;
+    private final Connection participant;
+    private final List<Runnable> afterCommit;
+    private boolean rollbackOnly = false;
+    private boolean committed = false;
+    private boolean closed = false;
+
+    private UnitOfWork(Connection physical) {
+        this.outer = null;
+        this.physical = physical;
+        this.participant = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new Participant());
+        this.afterCommit = new ArrayList<>();
+    }
+
+    private UnitOfWork(UnitOfWork outer) {
+        this.outer = outer;
+        this.physical = outer.physical;
+        this.participant = outer.participant;
+        this.afterCommit = outer.afterCommit;
+    }
+
+    public static UnitOfWork begin() throws SQLException {
+        UnitOfWork active = current.get();
+        if (active != null) {
+            return new UnitOfWork(active);
+        }
+        return open(ConnectionManager.getPool().borrow());
+    }
+
+    // starts the outermost unit of work on a borrowed connection, close() gives it back
+    static UnitOfWork open(Connection con) throws SQLException {
+        try {
+            con.setAutoCommit(false);
+        } catch (SQLException e) {
+            con.close();
+            throw e;
+        }
+        UnitOfWork work = new UnitOfWork(con);
+        current.set(work);
+        return work;
+    }
+
+    // the unit of work open on this thread, or null
+    public static UnitOfWork current() {
+        return current.get();
+    }
+
+    // Runs the action once the open unit of work commits, or right away if none is open
+    public static void runAfterCommit(Runnable action) {
+        UnitOfWork active = current.get();
+        if (active == null) {
+            action.run();
+        } else {
+            active.afterCommit(action);
+        }
+    }
+
+    public Connection getConnection() {
+        return participant;
+    }
+
+    public void afterCommit(Runnable action) {
+        afterCommit.add(action);
+    }
+
+    public void commit() throws SQLException {
+        if (closed || committed) {
+            throw new SQLException("Unit of work is already finished");
+        }
+        if (root().rollbackOnly) {
+            throw new SQLException("Unit of work was rolled back");
+        }
+        committed = true;
+        if (outer != null) {
+            return;     // the outermost unit of work commits
+        }
+        physical.commit();
+        for (Runnable action : afterCommit) {
+            action.run();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (outer != null) {
+            if (!committed) {
+                outer.root().rollbackOnly = true;
+            }
+            return;
+        }
+        current.remove();
+        try {
+            if (!committed) {
+                physical.rollback();
+            }
+            physical.setAutoCommit(true);
+        } finally {
+            physical.close();
+        }
+    }
+
+    private UnitOfWork root() {
+        return outer == null ? this : outer.root();
+    }
+
+    // the connection handed to the model classes, transaction control stays with the unit of work
+    private class Participant implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                case "setAutoCommit":
+                case "commit":
+                    return null;
+                case "getAutoCommit":
+                    return false;
+                case "isClosed":
+                    return closed || physical.isClosed();
+                case "rollback":
+                    if (args == null) {
+                        rollbackOnly = true;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package scheduler.events;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.LocalDate;
+
+// One change of the schedule, as written to the EventLog.
+//
+// Slot events carry the slot's ID, date and caregiver (and patient and vaccine once booked),
+// DOSES events the vaccine and the change in doses. Every logical dose change is logged once,
+// wherever it is applied (Vaccines table or DoseInventory), so that replaying DOSES events alone
+// gives the dose counts.
+public class Event {
+    public enum Type {
+        // a caregiver uploaded a free slot
+        SLOT_ADDED,
+        // a patient booked the slot
+        SLOT_BOOKED,
+        // the patient cancelled, the slot is free again
+        SLOT_FREED,
+        // the caregiver cancelled, the slot is gone
+        SLOT_REMOVED,
+        // the doses of a vaccine changed by delta
+        DOSES
+    }
+
+    // fixed part of the body: seq, time, type, slot ID, epoch day, delta
+    private static final int FIXED_BYTES = 8 + 8 + 1 + 8 + 4 + 4;
+
+    private final long seq;
+    private final long timeMillis;
+    private final Type type;
+    private final long slotID;
+    private final LocalDate date;
+    private final int delta;
+    private final String caregiverName;
+    private final String patientName;
+    private final String vaccineName;
+
+    private Event(long seq, long timeMillis, Type type, long slotID, LocalDate date, int delta,
+                  String caregiverName, String patientName, String vaccineName) {
+        this.seq = seq;
+        this.timeMillis = timeMillis;
+        this.type = type;
+        this.slotID = slotID;
+        this.date = date;
+        this.delta = delta;
+        this.caregiverName = caregiverName;
+        this.patientName = patientName;
+        this.vaccineName = vaccineName;
+    }
+
+    public static Event slot(Type type, long slotID, Date date, String caregiverName, String patientName, String vaccineName) {
+        if (type == Type.DOSES) {
+            throw new IllegalArgumentException("Not a slot event: " + type);
+        }
+        return new Event(0, System.currentTimeMillis(), type, slotID, date.toLocalDate(), 0,
+                caregiverName, patientName, vaccineName);
+    }
+
+    public static Event doses(String vaccineName, int delta) {
+        return new Event(0, System.currentTimeMillis(), Type.DOSES, 0, null, delta, null, null, vaccineName);
+    }
+
+    // the same event with the sequence number the log gave it
+    Event withSeq(long seq) {
+        return new Event(seq, timeMillis, type, slotID, date, delta, caregiverName, patientName, vaccineName);
+    }
+
+    // Getters
+    public long getSeq() {
+        return seq;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getSlotID() {
+        return slotID;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public int getDelta() {
+        return delta;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    int encodedSize() {
+        return FIXED_BYTES + stringSize(caregiverName) + stringSize(patientName) + stringSize(vaccineName);
+    }
+
+    void encode(ByteBuffer buffer) {
+        buffer.putLong(seq);
+        buffer.putLong(timeMillis);
+        buffer.put((byte) type.ordinal());
+        buffer.putLong(slotID);
+        buffer.putInt(date == null ? Integer.MIN_VALUE : (int) date.toEpochDay());
+        buffer.putInt(delta);
+        putString(buffer, caregiverName);
+        putString(buffer, patientName);
+        putString(buffer, vaccineName);
+    }
+
+    // Reads an event written by encode(), IllegalArgumentException if the bytes are not one
+    static Event decode(ByteBuffer buffer) {
+        try {
+            long seq = buffer.getLong();
+            long timeMillis = buffer.getLong();
+            int type = buffer.get();
+            if (type < 0 || type >= Type.values().length) {
+                throw new IllegalArgumentException("Unknown event type " + type);
+            }
+            long slotID = buffer.getLong();
+            int epochDay = buffer.getInt();
+            int delta = buffer.getInt();
+            return new Event(seq, timeMillis, Type.values()[type], slotID,
+                    epochDay == Integer.MIN_VALUE ? null : LocalDate.ofEpochDay(epochDay), delta,
+                    getString(buffer), getString(buffer), getString(buffer));
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated event", e);
+        }
+    }
+
+    // strings are stored as a two byte length (-1 for null) and UTF-8
+    private static int stringSize(String value) {
+        return 2 + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(seq).append(' ').append(java.time.Instant.ofEpochMilli(timeMillis)).append(' ').append(type);
+        if (type == Type.DOSES) {
+            sb.append(' ').append(vaccineName).append(' ').append(delta > 0 ? "+" : "").append(delta);
+        } else {
+            sb.append(" slot=").append(slotID).append(' ').append(date).append(" caregiver=").append(caregiverName);
+            if (patientName != null) {
+                sb.append(" patient=").append(patientName).append(" vaccine=").append(vaccineName);
+            }
+        }
+        return sb.toString();
+    }
+}
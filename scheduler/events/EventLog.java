@@ -0,0 +1,379 @@
+package scheduler.events;
+
+import scheduler.util.Config;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Append-only log of schedule changes (see Event), enable with EventLog=true.
+//
+// Events go to memory-mapped segment files of EventLogSegmentBytes (64 MB) in EventLogDir
+// (events), named after the sequence number of their first event. A record is its length, a
+// CRC32 and the encoded event; a zero length ends the segment. Appending copies the record into
+// the mapped file under a short lock. With EventLogSync=true (default) the writer then waits
+// until the record is on disk: one sync thread forces everything appended so far with a single
+// fsync, so all writers that arrive while a force runs share the next one (group commit). With
+// EventLogSync=false nobody waits and the sync thread forces every EventLogSyncMillis (50).
+//
+// Events are appended after the database commit; the database stays authoritative and the log is
+// the audit trail and the input of EventReplay. On open the newest segment is read up to its last
+// intact record, so a record torn by a crash is dropped.
+public class EventLog implements AutoCloseable {
+    private static final int HEADER_BYTES = 8;
+    private static final String SUFFIX = ".log";
+
+    private static final LongAdder appends = new LongAdder();
+    private static final LongAdder syncs = new LongAdder();
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final boolean sync;
+    private final long syncMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // the sync thread waits for appends, writers wait for syncs
+    private final Condition appended = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private MappedByteBuffer segment;
+    private int unsyncedFrom;
+    private long lastSeq;
+    private long syncedSeq;
+    private boolean closed = false;
+    private final Thread syncer;
+
+    public EventLog(Path dir, int segmentBytes, boolean sync, long syncMillis) throws IOException {
+        if (segmentBytes < 64 * 1024) {
+            throw new IllegalArgumentException("Event log segments must be at least 64 KB");
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.sync = sync;
+        this.syncMillis = syncMillis;
+        Files.createDirectories(dir);
+        recover();
+        this.syncedSeq = lastSeq;
+        this.syncer = new Thread(this::syncLoop, "event-log-sync");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    public static boolean isEnabled() {
+        return Config.getBoolean("EventLog", false);
+    }
+
+    public static EventLog getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // Appends the event if the event log is enabled. A failure is reported but not passed on:
+    // the change it describes is already committed.
+    public static void record(Event event) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            getInstance().append(event);
+        } catch (UncheckedIOException | IllegalStateException e) {
+            System.out.println("Could not write event log: " + e.getMessage());
+        }
+    }
+
+    public static Path getDefaultDir() {
+        return Paths.get(Config.get("EventLogDir", "events"));
+    }
+
+    // Appends the event and returns its sequence number, once it is on disk if EventLogSync is on
+    public long append(Event event) {
+        long seq;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Event log is closed");
+            }
+            seq = lastSeq + 1;
+            Event numbered = event.withSeq(seq);
+            int size = HEADER_BYTES + numbered.encodedSize();
+            if (size + 4 > segmentBytes) {
+                throw new IllegalArgumentException("Event too large: " + size + " bytes");
+            }
+            if (segment.position() + size + 4 > segmentBytes) {
+                roll(seq);
+            }
+            write(numbered, size);
+            lastSeq = seq;
+            appends.increment();
+            appended.signal();
+            if (sync) {
+                while (syncedSeq < seq && !closed) {
+                    synced.awaitUninterruptibly();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return seq;
+    }
+
+    public long getLastSeq() {
+        lock.lock();
+        try {
+            return lastSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    // events appended and fsyncs made by this process, their ratio is the group commit size
+    public static long getAppendCount() {
+        return appends.sum();
+    }
+
+    public static long getSyncCount() {
+        return syncs.sum();
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            syncer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Reads the events with a sequence number above afterSeq from the log in dir, in order
+    public static void read(Path dir, long afterSeq, Consumer<Event> consumer) throws IOException {
+        List<Long> firsts = segmentFirsts(dir);
+        for (int i = 0; i < firsts.size(); i++) {
+            if (i + 1 < firsts.size() && firsts.get(i + 1) <= afterSeq + 1) {
+                continue;   // every event of this segment is older
+            }
+            ByteBuffer buffer = map(segmentPath(dir, firsts.get(i)), FileChannel.MapMode.READ_ONLY, 0);
+            Event event;
+            while ((event = next(buffer)) != null) {
+                if (event.getSeq() > afterSeq) {
+                    consumer.accept(event);
+                }
+            }
+        }
+    }
+
+    // sequence number of the newest intact event in the log in dir, 0 if there is none
+    public static long readLastSeq(Path dir) throws IOException {
+        List<Long> firsts = segmentFirsts(dir);
+        if (firsts.isEmpty()) {
+            return 0;
+        }
+        long first = firsts.get(firsts.size() - 1);
+        ByteBuffer buffer = map(segmentPath(dir, first), FileChannel.MapMode.READ_ONLY, 0);
+        long last = first - 1;
+        Event event;
+        while ((event = next(buffer)) != null) {
+            last = event.getSeq();
+        }
+        return last;
+    }
+
+    private void write(Event event, int size) {
+        int start = segment.position();
+        segment.position(start + HEADER_BYTES);
+        event.encode(segment);
+        ByteBuffer body = segment.duplicate();
+        body.position(start + HEADER_BYTES).limit(start + size);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        segment.putInt(start, size - HEADER_BYTES);
+        segment.putInt(start + 4, (int) crc.getValue());
+        // end marker, so that whatever a crash left behind the record is never read
+        segment.putInt(start + size, 0);
+    }
+
+    // starts a new segment, the full one is forced right away so the sync thread only ever
+    // needs to look at the current one
+    private void roll(long firstSeq) {
+        if (segment != null) {
+            segment.force(unsyncedFrom, segment.position() - unsyncedFrom);
+        }
+        try {
+            segment = map(segmentPath(dir, firstSeq), FileChannel.MapMode.READ_WRITE, segmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create event log segment", e);
+        }
+        unsyncedFrom = 0;
+    }
+
+    private void syncLoop() {
+        while (true) {
+            MappedByteBuffer current;
+            int from;
+            int to;
+            long upTo;
+            lock.lock();
+            try {
+                while (lastSeq == syncedSeq && !closed) {
+                    appended.awaitUninterruptibly();
+                }
+                if (lastSeq == syncedSeq) {
+                    return;     // closed and nothing left to sync
+                }
+                current = segment;
+                from = unsyncedFrom;
+                to = segment.position();
+                upTo = lastSeq;
+                unsyncedFrom = to;
+            } finally {
+                lock.unlock();
+            }
+            // writers keep appending while the force runs, the next round picks them up
+            current.force(from, to - from);
+            syncs.increment();
+            lock.lock();
+            try {
+                syncedSeq = upTo;
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (!sync && syncMillis > 0) {
+                try {
+                    Thread.sleep(syncMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // finds the end of the newest segment, or starts the first one
+    private void recover() throws IOException {
+        List<Long> firsts = segmentFirsts(dir);
+        if (firsts.isEmpty()) {
+            lastSeq = 0;
+            roll(1);
+            return;
+        }
+        long first = firsts.get(firsts.size() - 1);
+        segment = map(segmentPath(dir, first), FileChannel.MapMode.READ_WRITE, segmentBytes);
+        lastSeq = first - 1;
+        Event event;
+        int end = 0;
+        while ((event = next(segment)) != null) {
+            lastSeq = event.getSeq();
+            end = segment.position();
+        }
+        segment.position(end);
+        if (end + 4 <= segmentBytes) {
+            segment.putInt(end, 0);
+        }
+        unsyncedFrom = end;
+    }
+
+    // the record at the buffer's position, or null at the end of the segment or a torn record
+    private static Event next(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.limit() - start < HEADER_BYTES) {
+            return null;
+        }
+        int length = buffer.getInt(start);
+        int checksum = buffer.getInt(start + 4);
+        if (length <= 0 || length > buffer.limit() - start - HEADER_BYTES) {
+            return null;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + HEADER_BYTES).limit(start + HEADER_BYTES + length);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        try {
+            Event event = Event.decode(body);
+            buffer.position(start + HEADER_BYTES + length);
+            return event;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // size 0 maps the file as it is
+    private static MappedByteBuffer map(Path path, FileChannel.MapMode mode, int size) throws IOException {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            long length = size == 0 ? channel.size() : Math.max(size, channel.size());
+            return channel.map(mode, 0, length);
+        }
+    }
+
+    private static List<Long> segmentFirsts(Path dir) throws IOException {
+        List<Long> firsts = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return firsts;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    firsts.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        Collections.sort(firsts);
+        return firsts;
+    }
+
+    private static Path segmentPath(Path dir, long firstSeq) {
+        return dir.resolve(String.format("%020d%s", firstSeq, SUFFIX));
+    }
+
+    private static class Holder {
+        private static final EventLog INSTANCE = create();
+
+        private static EventLog create() {
+            try {
+                EventLog log = new EventLog(getDefaultDir(),
+                        Config.getInt("EventLogSegmentBytes", 64 * 1024 * 1024),
+                        Config.getBoolean("EventLogSync", true),
+                        Config.getLong("EventLogSyncMillis", 50));
+                Runtime.getRuntime().addShutdownHook(new Thread(log::close, "event-log-shutdown"));
+                return log;
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open event log", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package scheduler.events;
+
+import scheduler.db.ConnectionManager;
+import scheduler.util.Config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.CRC32;
+
+// Rebuilds the free slots and the dose counts from the event log: the newest snapshot plus the
+// events after it, instead of scanning the Availabilities and Vaccines tables.
+//
+// With EventLogWarmStart=true, SlotIndex and DoseInventory start from restore() when there is a
+// snapshot. Like DoseInventory this assumes a single node writes the schedule: changes made by
+// other processes are not in this log. The first snapshot is taken from the database and should
+// be taken while nothing is being booked; later ones only read the log.
+//
+//     java scheduler.events.EventReplay [summary]       replays and prints what it found
+//     java scheduler.events.EventReplay snapshot        writes a new snapshot
+//     java scheduler.events.EventReplay dump [afterSeq] prints the events (the audit trail)
+public class EventReplay {
+    private static final int SNAPSHOT_MAGIC = 0x53434853;   // "SCHS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    public static boolean isWarmStartEnabled() {
+        return EventLog.isEnabled() && Config.getBoolean("EventLogWarmStart", false);
+    }
+
+    // Newest snapshot plus the events after it, null if no snapshot was taken yet
+    public static State restore(Path dir) throws IOException {
+        State state = readLatestSnapshot(dir);
+        if (state == null) {
+            return null;
+        }
+        EventLog.read(dir, state.seq, state::apply);
+        return state;
+    }
+
+    // The free slots and doses in the database, as of the given position in the log
+    public static State fromDatabase(long seq) throws SQLException {
+        State state = new State(seq);
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getVaccines = "SELECT Name, Doses FROM Vaccines";
+        String getFreeSlots = "SELECT ID, CaregiverName, Time FROM Availabilities WHERE PatientName IS NULL";
+        try {
+            PreparedStatement statement_1 = con.prepareStatement(getVaccines);
+            ResultSet resultSet_1 = statement_1.executeQuery();
+            while (resultSet_1.next()) {
+                state.doses.put(resultSet_1.getString("Name"), resultSet_1.getLong("Doses"));
+            }
+            PreparedStatement statement_2 = con.prepareStatement(getFreeSlots);
+            statement_2.setFetchSize(10_000);
+            ResultSet resultSet_2 = statement_2.executeQuery();
+            while (resultSet_2.next()) {
+                long ID = resultSet_2.getLong("ID");
+                state.freeSlots.put(ID, new FreeSlot(ID, resultSet_2.getDate("Time").toLocalDate(),
+                        resultSet_2.getString("CaregiverName")));
+            }
+            return state;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Writes the state as the newest snapshot and removes the older ones
+    public static Path writeSnapshot(Path dir, State state) throws IOException {
+        Path target = dir.resolve(String.format("%s%020d.bin", SNAPSHOT_PREFIX, state.seq));
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream file = Files.newOutputStream(temp);
+             CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), crc);
+             DataOutputStream out = new DataOutputStream(checked)) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(state.seq);
+            out.writeInt(state.doses.size());
+            for (Map.Entry<String, Long> vaccine : state.doses.entrySet()) {
+                out.writeUTF(vaccine.getKey());
+                out.writeLong(vaccine.getValue());
+            }
+            out.writeInt(state.freeSlots.size());
+            for (FreeSlot slot : state.freeSlots.values()) {
+                out.writeLong(slot.ID);
+                out.writeInt((int) slot.date.toEpochDay());
+                out.writeUTF(slot.caregiverName);
+            }
+            out.flush();
+            out.writeInt((int) crc.getValue());
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Path old : snapshots(dir)) {
+            if (!old.equals(target)) {
+                Files.deleteIfExists(old);
+            }
+        }
+        return target;
+    }
+
+    private static State readLatestSnapshot(Path dir) throws IOException {
+        List<Path> snapshots = snapshots(dir);
+        // newest first, an unreadable snapshot falls back to the one before
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            State state = readSnapshot(snapshots.get(i));
+            if (state != null) {
+                return state;
+            }
+            System.out.println("Ignoring damaged event log snapshot " + snapshots.get(i));
+        }
+        return null;
+    }
+
+    private static State readSnapshot(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream file = Files.newInputStream(path);
+             CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file), crc);
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                return null;
+            }
+            State state = new State(in.readLong());
+            int vaccines = in.readInt();
+            for (int i = 0; i < vaccines; i++) {
+                state.doses.put(in.readUTF(), in.readLong());
+            }
+            int slots = in.readInt();
+            for (int i = 0; i < slots; i++) {
+                long ID = in.readLong();
+                state.freeSlots.put(ID, new FreeSlot(ID, LocalDate.ofEpochDay(in.readInt()), in.readUTF()));
+            }
+            int expected = (int) crc.getValue();
+            return in.readInt() == expected ? state : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static List<Path> snapshots(Path dir) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SNAPSHOT_PREFIX + "*.bin")) {
+            for (Path path : stream) {
+                snapshots.add(path);
+            }
+        }
+        // zero padded sequence numbers, so names sort like the numbers
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dir = EventLog.getDefaultDir();
+        String command = args.length > 0 ? args[0] : "summary";
+        long start = System.nanoTime();
+        switch (command) {
+            case "summary": {
+                State state = restore(dir);
+                if (state == null) {
+                    System.out.println("No snapshot in " + dir.toAbsolutePath() + ", run 'snapshot' first");
+                    return;
+                }
+                System.out.printf("Replayed up to event %d in %.1f ms: %d free slots on %d dates, %d vaccines\n",
+                        state.seq, (System.nanoTime() - start) / 1e6, state.freeSlots.size(),
+                        state.countDates(), state.doses.size());
+                for (Map.Entry<String, Long> vaccine : state.doses.entrySet()) {
+                    System.out.println(vaccine.getKey() + " " + vaccine.getValue());
+                }
+                break;
+            }
+            case "snapshot": {
+                State state = restore(dir);
+                if (state == null) {
+                    // events written before now are already in the tables
+                    state = fromDatabase(EventLog.readLastSeq(dir));
+                }
+                Path written = writeSnapshot(dir, state);
+                System.out.printf("Wrote %s (%d free slots, %d vaccines) in %.1f ms\n", written,
+                        state.freeSlots.size(), state.doses.size(), (System.nanoTime() - start) / 1e6);
+                break;
+            }
+            case "dump": {
+                long afterSeq = args.length > 1 ? Long.parseLong(args[1]) : 0;
+                EventLog.read(dir, afterSeq, System.out::println);
+                break;
+            }
+            default:
+                System.out.println("Usage: EventReplay [summary | snapshot | dump [afterSeq]]");
+        }
+    }
+
+    // Free slots by ID and doses by vaccine (names compare case-insensitively), as of event seq
+    public static class State {
+        private long seq;
+        private final Map<String, Long> doses = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final Map<Long, FreeSlot> freeSlots = new TreeMap<>();
+
+        State(long seq) {
+            this.seq = seq;
+        }
+
+        void apply(Event event) {
+            switch (event.getType()) {
+                case SLOT_ADDED:
+                case SLOT_FREED:
+                    freeSlots.put(event.getSlotID(), new FreeSlot(event.getSlotID(), event.getDate(), event.getCaregiverName()));
+                    break;
+                case SLOT_BOOKED:
+                case SLOT_REMOVED:
+                    freeSlots.remove(event.getSlotID());
+                    break;
+                case DOSES:
+                    doses.merge(event.getVaccineName(), (long) event.getDelta(), Long::sum);
+                    break;
+                default:
+                    break;
+            }
+            seq = event.getSeq();
+        }
+
+        private long countDates() {
+            return freeSlots.values().stream().map(FreeSlot::getDate).distinct().count();
+        }
+
+        // Getters
+        public long getSeq() {
+            return seq;
+        }
+
+        public Map<String, Long> getDoses() {
+            return Collections.unmodifiableMap(doses);
+        }
+
+        public Iterable<FreeSlot> getFreeSlots() {
+            return Collections.unmodifiableCollection(freeSlots.values());
+        }
+    }
+
+    public static class FreeSlot {
+        private final long ID;
+        private final LocalDate date;
+        private final String caregiverName;
+
+        FreeSlot(long ID, LocalDate date, String caregiverName) {
+            this.ID = ID;
+            this.date = date;
+            this.caregiverName = caregiverName;
+        }
+
+        // Getters
+        public long getID() {
+            return ID;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public String getCaregiverName() {
+            return caregiverName;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package scheduler.inventory;
+
+import scheduler.util.Config;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Decides which free slot of a date a reservation tries first (AssignmentStrategy, default
+// power-of-two):
+//
+//   first          lowest ID first, every reserver goes for the same row
+//   round-robin    a per-date cursor, consecutive reservers start at different slots
+//   least-loaded   fewest claims in progress on the row, then the caregiver with the fewest
+//                  bookings around that date (see CaregiverLoad)
+//   power-of-two   of two random slots the less loaded one, repeatedly; nearly as even as
+//                  least-loaded, but concurrent reservers rarely pick the same row
+//
+// order() returns all candidates, so a reserver whose claim lost can go on with the next one.
+//
+// The single-batch SQL Server reservation picks its row in the database instead, with the ORDER BY
+// from sqlOrder(). There the load is the caregiver's bookings around the date in the table, and
+// READPAST takes the place of the claims in progress: rows being booked are skipped.
+public abstract class AssignmentStrategy {
+    // bookings of the candidate row's (a) caregiver within AssignmentWindowDays of its date
+    private static final String SQL_LOAD = "(SELECT COUNT(*) FROM Availabilities b WHERE b.CaregiverName = a.CaregiverName " +
+            "AND b.PatientName IS NOT NULL AND b.Time BETWEEN DATEADD(day, -" + CaregiverLoad.WINDOW_DAYS + ", a.Time) " +
+            "AND DATEADD(day, " + CaregiverLoad.WINDOW_DAYS + ", a.Time))";
+
+    private static final AssignmentStrategy CONFIGURED = named(Config.get("AssignmentStrategy", "power-of-two"));
+
+    public static AssignmentStrategy getDefault() {
+        return CONFIGURED;
+    }
+
+    public static AssignmentStrategy named(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "first":
+                return new First();
+            case "round-robin":
+                return new RoundRobin();
+            case "least-loaded":
+                return new LeastLoaded();
+            case "power-of-two":
+                return new PowerOfTwo();
+            default:
+                throw new IllegalArgumentException("Unknown assignment strategy: " + name);
+        }
+    }
+
+    // the candidates in the order they should be tried
+    public abstract List<SlotIndex.Slot> order(LocalDate date, List<SlotIndex.Slot> candidates, CaregiverLoad load);
+
+    // the free slots of a date in the SlotIndex, polled in this strategy's order
+    abstract SlotQueue newQueue(LocalDate date, CaregiverLoad load);
+
+    // ORDER BY of the free rows (a) of a date in the single-batch SQL Server reservation
+    public abstract String sqlOrder();
+
+    // sets the parameters of sqlOrder() starting at index, returns the next free index
+    public int bindOrder(PreparedStatement statement, int index, LocalDate date) throws SQLException {
+        return index;
+    }
+
+    // the database booked the slot with this ID on the date for a sqlOrder() reservation
+    public void assigned(LocalDate date, long ID) {
+    }
+
+    // claims in progress first, so that concurrent reservers avoid each other's rows
+    static Comparator<SlotIndex.Slot> byLoad(LocalDate date, CaregiverLoad load) {
+        return Comparator.<SlotIndex.Slot>comparingInt(slot -> load.getClaiming(date, slot.getCaregiverName()))
+                .thenComparingInt(slot -> load.getLoad(date, slot.getCaregiverName()));
+    }
+
+    private static class First extends AssignmentStrategy {
+        @Override
+        public List<SlotIndex.Slot> order(LocalDate date, List<SlotIndex.Slot> candidates, CaregiverLoad load) {
+            List<SlotIndex.Slot> ordered = new ArrayList<>(candidates);
+            ordered.sort(Comparator.comparingLong(SlotIndex.Slot::getID));
+            return ordered;
+        }
+
+        @Override
+        public String sqlOrder() {
+            return "a.ID";
+        }
+
+        @Override
+        SlotQueue newQueue(LocalDate date, CaregiverLoad load) {
+            return new SlotQueue.ByID();
+        }
+    }
+
+    private static class RoundRobin extends AssignmentStrategy {
+        private final Map<LocalDate, AtomicLong> cursors = new ConcurrentHashMap<>();
+        // in the database the cursor is the last ID booked on the date, the next reserver starts after it
+        private final Map<LocalDate, AtomicLong> lastAssigned = new ConcurrentHashMap<>();
+
+        @Override
+        public List<SlotIndex.Slot> order(LocalDate date, List<SlotIndex.Slot> candidates, CaregiverLoad load) {
+            List<SlotIndex.Slot> ordered = new ArrayList<>(candidates);
+            ordered.sort(Comparator.comparingLong(SlotIndex.Slot::getID));
+            if (ordered.isEmpty()) {
+                return ordered;
+            }
+            int start = (int) Math.floorMod(cursors.computeIfAbsent(date, d -> new AtomicLong()).getAndIncrement(),
+                    (long) ordered.size());
+            List<SlotIndex.Slot> rotated = new ArrayList<>(ordered.subList(start, ordered.size()));
+            rotated.addAll(ordered.subList(0, start));
+            if (cursors.size() > 1000) {
+                cursors.keySet().removeIf(d -> d.isBefore(LocalDate.now()));
+            }
+            return rotated;
+        }
+
+        @Override
+        public String sqlOrder() {
+            return "CASE WHEN a.ID > ? THEN 0 ELSE 1 END, a.ID";
+        }
+
+        @Override
+        SlotQueue newQueue(LocalDate date, CaregiverLoad load) {
+            return new SlotQueue.RoundRobin();
+        }
+
+        @Override
+        public int bindOrder(PreparedStatement statement, int index, LocalDate date) throws SQLException {
+            AtomicLong last = lastAssigned.get(date);
+            statement.setLong(index, last == null ? Long.MIN_VALUE : last.get());
+            return index + 1;
+        }
+
+        @Override
+        public void assigned(LocalDate date, long ID) {
+            lastAssigned.computeIfAbsent(date, d -> new AtomicLong()).set(ID);
+            if (lastAssigned.size() > 1000) {
+                lastAssigned.keySet().removeIf(d -> d.isBefore(LocalDate.now()));
+            }
+        }
+    }
+
+    private static class LeastLoaded extends AssignmentStrategy {
+        @Override
+        public List<SlotIndex.Slot> order(LocalDate date, List<SlotIndex.Slot> candidates, CaregiverLoad load) {
+            List<SlotIndex.Slot> ordered = new ArrayList<>(candidates);
+            ordered.sort(byLoad(date, load).thenComparingLong(SlotIndex.Slot::getID));
+            return ordered;
+        }
+
+        @Override
+        public String sqlOrder() {
+            return SQL_LOAD + ", a.ID";
+        }
+
+        @Override
+        SlotQueue newQueue(LocalDate date, CaregiverLoad load) {
+            return new SlotQueue.LeastLoaded(date, load);
+        }
+    }
+
+    private static class PowerOfTwo extends AssignmentStrategy {
+        @Override
+        public List<SlotIndex.Slot> order(LocalDate date, List<SlotIndex.Slot> candidates, CaregiverLoad load) {
+            List<SlotIndex.Slot> remaining = new ArrayList<>(candidates);
+            List<SlotIndex.Slot> ordered = new ArrayList<>(remaining.size());
+            Comparator<SlotIndex.Slot> byLoad = byLoad(date, load);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (!remaining.isEmpty()) {
+                int a = random.nextInt(remaining.size());
+                int b = random.nextInt(remaining.size());
+                int pick = byLoad.compare(remaining.get(a), remaining.get(b)) <= 0 ? a : b;
+                // swap-remove, the order of the rest does not matter
+                ordered.add(remaining.get(pick));
+                remaining.set(pick, remaining.get(remaining.size() - 1));
+                remaining.remove(remaining.size() - 1);
+            }
+            return ordered;
+        }
+
+        // the least loaded row, ties broken at random so concurrent reservers spread out
+        @Override
+        public String sqlOrder() {
+            return SQL_LOAD + ", NEWID()";
+        }
+
+        @Override
+        SlotQueue newQueue(LocalDate date, CaregiverLoad load) {
+            return new SlotQueue.PowerOfTwo(date, load);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package scheduler.inventory;
+
+import scheduler.util.Config;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-date counters the AssignmentStrategy uses to spread reservations:
+//
+// - claims in progress per caregiver and date, i.e. per slot row, so that concurrent reservers
+//   of the same date try different rows instead of waiting on each other's locks;
+// - bookings per caregiver and date made by this process, summed over the AssignmentWindowDays
+//   (3) days before and after a date as the caregiver's load.
+//
+// Only this process's reservations are counted, the database still decides every claim.
+public class CaregiverLoad {
+    private static final CaregiverLoad INSTANCE = new CaregiverLoad();
+    static final int WINDOW_DAYS = Config.getInt("AssignmentWindowDays", 3);
+
+    private final ConcurrentHashMap<LocalDate, ConcurrentHashMap<String, AtomicInteger>> claiming = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<LocalDate, ConcurrentHashMap<String, AtomicInteger>> booked = new ConcurrentHashMap<>();
+    private final LongAdder claims = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private volatile LocalDate prunedOn = LocalDate.MIN;
+
+    public static CaregiverLoad getInstance() {
+        return INSTANCE;
+    }
+
+    public void claimStarted(LocalDate date, String caregiverName) {
+        counter(claiming, date, caregiverName).incrementAndGet();
+        claims.increment();
+    }
+
+    // conflict: the slot was taken by someone else between picking and claiming it
+    public void claimFinished(LocalDate date, String caregiverName, boolean conflict) {
+        counter(claiming, date, caregiverName).decrementAndGet();
+        if (conflict) {
+            conflicts.increment();
+        }
+    }
+
+    public void booked(LocalDate date, String caregiverName) {
+        counter(booked, date, caregiverName).incrementAndGet();
+        prune();
+    }
+
+    public void released(LocalDate date, String caregiverName) {
+        Map<String, AtomicInteger> day = booked.get(date);
+        AtomicInteger count = day == null ? null : day.get(key(caregiverName));
+        if (count != null) {
+            count.updateAndGet(n -> Math.max(0, n - 1));
+        }
+    }
+
+    public int getClaiming(LocalDate date, String caregiverName) {
+        return get(claiming, date, caregiverName);
+    }
+
+    // bookings of the caregiver from WINDOW_DAYS before to WINDOW_DAYS after the date
+    public int getLoad(LocalDate date, String caregiverName) {
+        int load = 0;
+        for (int offset = -WINDOW_DAYS; offset <= WINDOW_DAYS; offset++) {
+            load += get(booked, date.plusDays(offset), caregiverName);
+        }
+        return load;
+    }
+
+    public long getClaimCount() {
+        return claims.sum();
+    }
+
+    public long getConflictCount() {
+        return conflicts.sum();
+    }
+
+    // forgets dates that can no longer be booked, at most once a day
+    private void prune() {
+        LocalDate today = LocalDate.now();
+        if (!prunedOn.isBefore(today)) {
+            return;
+        }
+        prunedOn = today;
+        LocalDate oldest = today.minusDays(WINDOW_DAYS);
+        booked.keySet().removeIf(date -> date.isBefore(oldest));
+        claiming.keySet().removeIf(date -> date.isBefore(oldest));
+    }
+
+    private static AtomicInteger counter(ConcurrentHashMap<LocalDate, ConcurrentHashMap<String, AtomicInteger>> counters,
+                                         LocalDate date, String caregiverName) {
+        return counters.computeIfAbsent(date, d -> new ConcurrentHashMap<>())
+                .computeIfAbsent(key(caregiverName), c -> new AtomicInteger());
+    }
+
+    private static int get(ConcurrentHashMap<LocalDate, ConcurrentHashMap<String, AtomicInteger>> counters,
+                           LocalDate date, String caregiverName) {
+        Map<String, AtomicInteger> day = counters.get(date);
+        AtomicInteger count = day == null ? null : day.get(key(caregiverName));
+        return count == null ? 0 : count.get();
+    }
+
+    // usernames compare case-insensitively in the database
+    private static String key(String caregiverName) {
+        return caregiverName.toLowerCase(java.util.Locale.ROOT);
+    }
+}
@@ -0,0 +1,413 @@
+package scheduler.inventory;
+
+import scheduler.db.ConnectionManager;
+import scheduler.events.Event;
+import scheduler.events.EventLog;
+import scheduler.events.EventReplay;
+import scheduler.util.Config;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory dose counts with write-behind persistence (enable with DoseInventory=memory).
+//
+// Availability checks and reservations are served from striped counters without touching the
+// database. Every change is appended to a local journal first and collected as a per-vaccine
+// delta; a background flusher writes the coalesced deltas as one batch of
+// "Doses = Doses + delta" updates, together with the journal position it covers, in one
+// transaction. On startup, journal entries past the stored position are applied before the
+// counts are loaded. Every change reaches the operating system before the call that made it
+// returns, so a crash of the process loses none; the journal is only forced to disk when a flush
+// cuts it, so a crash of the machine can lose the changes of the last InventoryFlushIntervalMillis.
+//
+// The counts are authoritative only while a single process updates the Vaccines table.
+public class DoseInventory {
+    private static final String NODE = Config.get("InventoryNode", "default");
+
+    private final Path journalDir;
+    private final String journalPrefix;
+    private final long flushIntervalMillis;
+
+    // lower-cased vaccine name -> counter, names are case-insensitive like in the database
+    private final ConcurrentHashMap<String, Stock> stock = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> pending = new ConcurrentHashMap<>();
+    // recorders share the read lock, the flusher takes the write lock to cut a consistent batch
+    private final ReentrantReadWriteLock cut = new ReentrantReadWriteLock();
+    private final AtomicLong sequence = new AtomicLong();
+    private BufferedWriter journal;
+    private FileChannel journalChannel;
+    private Path journalFile;
+    // segments whose deltas are not known to be in the database yet, guarded by flush()
+    private final List<Path> retired = new ArrayList<>();
+    private final ScheduledExecutorService flusher;
+
+    private DoseInventory() throws SQLException, IOException {
+        Path journalPath = Paths.get(Config.get("InventoryJournal", "inventory.journal")).toAbsolutePath();
+        this.journalDir = journalPath.getParent();
+        this.journalPrefix = journalPath.getFileName().toString();
+        this.flushIntervalMillis = Config.getLong("InventoryFlushIntervalMillis", 200);
+        Files.createDirectories(journalDir);
+
+        reconcile();
+        load();
+        openJournal();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dose-inventory-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "dose-inventory-shutdown"));
+    }
+
+    public static boolean isEnabled() {
+        return Config.get("DoseInventory", "database").equalsIgnoreCase("memory");
+    }
+
+    public static DoseInventory getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public boolean contains(String vaccineName) {
+        return stock.containsKey(key(vaccineName));
+    }
+
+    // Returns the number of doses left, or -1 if the vaccine does not exist
+    public long getAvailableDoses(String vaccineName) {
+        Stock s = stock.get(key(vaccineName));
+        return s == null ? -1 : s.counter.sum();
+    }
+
+    // name -> doses for every known vaccine, ordered by name
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Stock s : stock.values()) {
+            snapshot.put(s.name, s.counter.sum());
+        }
+        return snapshot;
+    }
+
+    // Takes doses if enough are left. The change is journaled right away, call release() to
+    // give the doses back if the reservation they were taken for does not happen.
+    public boolean tryTake(String vaccineName, int num) {
+        Stock s = stock.get(key(vaccineName));
+        if (s == null || !s.counter.take(num)) {
+            return false;
+        }
+        record(s.name, -num);
+        return true;
+    }
+
+    // Takes up to num doses, as many as are left, and returns how many it took. Like tryTake(),
+    // the change is journaled right away.
+    public int takeUpTo(String vaccineName, int num) {
+        Stock s = stock.get(key(vaccineName));
+        if (s == null) {
+            return 0;
+        }
+        int took = (int) s.counter.takeUpTo(num);
+        if (took > 0) {
+            record(s.name, -took);
+        }
+        return took;
+    }
+
+    public void release(String vaccineName, int num) {
+        add(vaccineName, num);
+    }
+
+    public void add(String vaccineName, int num) {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        Stock s = stock.get(key(vaccineName));
+        if (s == null) {
+            throw new IllegalArgumentException("Unknown vaccine: " + vaccineName);
+        }
+        s.counter.add(num);
+        record(s.name, num);
+    }
+
+    // Makes a vaccine that was just inserted into the Vaccines table known to the inventory
+    public void register(String vaccineName, int doses) {
+        stock.putIfAbsent(key(vaccineName), new Stock(vaccineName, doses));
+    }
+
+    private void record(String vaccineName, long delta) {
+        cut.readLock().lock();
+        try {
+            long seq = sequence.incrementAndGet();
+            synchronized (this) {
+                journal.write(seq + " " + delta + " " + vaccineName);
+                journal.newLine();
+                journal.flush();
+            }
+            pending.computeIfAbsent(vaccineName, k -> new LongAdder()).add(delta);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write inventory journal", e);
+        } finally {
+            cut.readLock().unlock();
+        }
+        EventLog.record(Event.doses(vaccineName, (int) delta));
+    }
+
+    // Writes all deltas recorded so far to the Vaccines table. If that fails, the deltas go back
+    // into pending for the next flush and their journal segment is kept, so that a crash before
+    // then still replays them on start. One flush at a time, so that a later flush can't move the
+    // checkpoint past deltas an earlier one failed to write.
+    public synchronized void flush() throws SQLException, IOException {
+        Map<String, Long> deltas = new HashMap<>();
+        long upTo;
+        cut.writeLock().lock();
+        try {
+            for (Map.Entry<String, LongAdder> entry : pending.entrySet()) {
+                long delta = entry.getValue().sumThenReset();
+                if (delta != 0) {
+                    deltas.put(entry.getKey(), delta);
+                }
+            }
+            upTo = sequence.get();
+            // on disk before the deltas it holds are taken out of pending
+            journal.flush();
+            journalChannel.force(false);
+            // start a new journal segment, the old one can go once its deltas are in the database
+            retired.add(journalFile);
+            openJournal();
+        } finally {
+            cut.writeLock().unlock();
+        }
+        if (!deltas.isEmpty()) {
+            try {
+                applyDeltas(deltas, upTo);
+            } catch (SQLException e) {
+                for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+                    pending.computeIfAbsent(delta.getKey(), k -> new LongAdder()).add(delta.getValue());
+                }
+                throw e;
+            }
+        }
+        // everything in the retired segments is in the database now
+        for (Path segment : retired) {
+            Files.deleteIfExists(segment);
+        }
+        retired.clear();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException | IOException e) {
+            // the deltas are retried by the next flush, or replayed from the journal on the next start
+            System.out.println("Error occurred when flushing dose inventory");
+            e.printStackTrace();
+        }
+    }
+
+    public void close() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+
+    private void applyDeltas(Map<String, Long> deltas, long upTo) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String applyDelta = "UPDATE Vaccines SET Doses = Doses + ?, Version = Version + 1 WHERE Name = ?";
+        String updateCheckpoint = "UPDATE InventoryCheckpoint SET LastSeq = ? WHERE Node = ?";
+        String addCheckpoint = "INSERT INTO InventoryCheckpoint VALUES (?, ?)";
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement_1 = con.prepareStatement(applyDelta);
+            for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+                statement_1.setLong(1, entry.getValue());
+                statement_1.setString(2, entry.getKey());
+                statement_1.addBatch();
+            }
+            statement_1.executeBatch();
+            PreparedStatement statement_2 = con.prepareStatement(updateCheckpoint);
+            statement_2.setLong(1, upTo);
+            statement_2.setString(2, NODE);
+            if (statement_2.executeUpdate() == 0) {
+                PreparedStatement statement_3 = con.prepareStatement(addCheckpoint);
+                statement_3.setString(1, NODE);
+                statement_3.setLong(2, upTo);
+                statement_3.executeUpdate();
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Applies journal entries the last flush did not get to, then removes the journal segments
+    private void reconcile() throws SQLException, IOException {
+        long checkpoint = readCheckpoint();
+        long last = checkpoint;
+        Map<String, Long> deltas = new HashMap<>();
+        List<Path> segments = journalSegments();
+        for (Path segment : segments) {
+            try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(" ", 3);
+                    if (parts.length < 3) {
+                        continue;   // torn write at the end of the journal
+                    }
+                    long seq = Long.parseLong(parts[0]);
+                    if (seq > checkpoint) {
+                        deltas.merge(parts[2], Long.parseLong(parts[1]), Long::sum);
+                    }
+                    last = Math.max(last, seq);
+                }
+            }
+        }
+        deltas.values().removeIf(delta -> delta == 0);
+        if (last > checkpoint) {
+            applyDeltas(deltas, last);
+            System.out.printf("Dose inventory recovered %d journal entries\n", last - checkpoint);
+        }
+        for (Path segment : segments) {
+            Files.deleteIfExists(segment);
+        }
+        sequence.set(last);
+    }
+
+    private long readCheckpoint() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getCheckpoint = "SELECT LastSeq FROM InventoryCheckpoint WHERE Node = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(getCheckpoint);
+            statement.setString(1, NODE);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getLong("LastSeq") : 0;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void load() throws SQLException {
+        if (EventReplay.isWarmStartEnabled() && loadFromEventLog()) {
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getVaccines = "SELECT Name, Doses FROM Vaccines";
+        try {
+            PreparedStatement statement = con.prepareStatement(getVaccines);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                String name = resultSet.getString("Name");
+                stock.put(key(name), new Stock(name, Math.max(0, resultSet.getInt("Doses"))));
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // the counts as of the newest snapshot plus the events after it, see EventReplay
+    private boolean loadFromEventLog() {
+        try {
+            EventReplay.State state = EventReplay.restore(EventLog.getDefaultDir());
+            if (state == null) {
+                return false;
+            }
+            for (Map.Entry<String, Long> vaccine : state.getDoses().entrySet()) {
+                stock.put(key(vaccine.getKey()), new Stock(vaccine.getKey(), Math.max(0, vaccine.getValue())));
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("Could not replay event log, loading doses from the database: " + e.getMessage());
+            stock.clear();
+            return false;
+        }
+    }
+
+    private void openJournal() {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+            journalFile = journalDir.resolve(journalPrefix + "." + System.nanoTime());
+            journalChannel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            journal = new BufferedWriter(Channels.newWriter(journalChannel, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open inventory journal", e);
+        }
+    }
+
+    private List<Path> journalSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(journalDir, journalPrefix + ".*")) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    private static String key(String vaccineName) {
+        return vaccineName.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Stock {
+        private final String name;
+        private final StripedCounter counter;
+
+        Stock(String name, long doses) {
+            this.name = name;
+            this.counter = new StripedCounter(doses);
+        }
+    }
+
+    private static class Holder {
+        private static final DoseInventory INSTANCE = create();
+
+        private static DoseInventory create() {
+            try {
+                return new DoseInventory();
+            } catch (SQLException | IOException e) {
+                throw new IllegalStateException("Could not start dose inventory", e);
+            }
+        }
+    }
+}
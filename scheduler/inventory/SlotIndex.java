@@ -0,0 +1,163 @@
+package scheduler.inventory;
+
+import scheduler.db.ConnectionManager;
+import scheduler.events.EventLog;
+import scheduler.events.EventReplay;
+import scheduler.util.Config;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// In-memory index of the free (not booked) availability slots per date (enable with SlotIndex=memory).
+//
+// It is built from the Availabilities table on first use (or from the event log with
+// EventLogWarmStart=true, see EventReplay) and kept up to date by the model classes when slots
+// are uploaded, booked and cancelled. Reservations take a candidate slot
+// from here and only send the final conditional claim (... WHERE ID = ? AND PatientName IS NULL)
+// to the database, so a stale entry can never lead to a double booking, it is just skipped.
+public class SlotIndex {
+    private final AssignmentStrategy strategy = AssignmentStrategy.getDefault();
+    private final ConcurrentSkipListMap<LocalDate, SlotQueue> free = new ConcurrentSkipListMap<>();
+
+    private SlotIndex() throws SQLException {
+        load();
+    }
+
+    public static boolean isEnabled() {
+        return Config.get("SlotIndex", "database").equalsIgnoreCase("memory");
+    }
+
+    public static SlotIndex getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // Takes a free slot on the given date out of the index, null if there is none. Which one is
+    // up to the AssignmentStrategy, see SlotQueue.
+    public Slot poll(Date date) {
+        Queue<Slot> slots = free.get(date.toLocalDate());
+        return slots == null ? null : slots.poll();
+    }
+
+    public void add(Date date, long ID, String caregiverName) {
+        add(new Slot(ID, caregiverName, date.toLocalDate()));
+    }
+
+    // puts a slot back, e.g. when a claim failed for another reason than the slot being taken
+    public void add(Slot slot) {
+        free.computeIfAbsent(slot.date, d -> strategy.newQueue(d, CaregiverLoad.getInstance())).add(slot);
+    }
+
+    public void remove(Date date, long ID) {
+        SlotQueue slots = free.get(date.toLocalDate());
+        if (slots != null) {
+            slots.removeID(ID);
+        }
+    }
+
+    public List<String> getFreeCaregivers(Date date) {
+        List<String> caregivers = new ArrayList<>();
+        Queue<Slot> slots = free.get(date.toLocalDate());
+        if (slots != null) {
+            for (Slot slot : slots) {
+                caregivers.add(slot.caregiverName);
+            }
+        }
+        return caregivers;
+    }
+
+    public int countFree(Date date) {
+        Queue<Slot> slots = free.get(date.toLocalDate());
+        return slots == null ? 0 : slots.size();
+    }
+
+    // free slots per date for all dates between start and end (inclusive)
+    public NavigableMap<LocalDate, Queue<Slot>> range(Date start, Date end) {
+        return Collections.unmodifiableNavigableMap(free.subMap(start.toLocalDate(), true, end.toLocalDate(), true));
+    }
+
+    private void load() throws SQLException {
+        if (EventReplay.isWarmStartEnabled() && loadFromEventLog()) {
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getFreeSlots = "SELECT ID, CaregiverName, Time FROM Availabilities WHERE PatientName IS NULL";
+        try {
+            PreparedStatement statement = con.prepareStatement(getFreeSlots);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                add(resultSet.getDate("Time"), resultSet.getLong("ID"), resultSet.getString("CaregiverName"));
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private boolean loadFromEventLog() {
+        try {
+            EventReplay.State state = EventReplay.restore(EventLog.getDefaultDir());
+            if (state == null) {
+                return false;
+            }
+            for (EventReplay.FreeSlot slot : state.getFreeSlots()) {
+                add(new Slot(slot.getID(), slot.getCaregiverName(), slot.getDate()));
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("Could not replay event log, loading free slots from the database: " + e.getMessage());
+            free.clear();
+            return false;
+        }
+    }
+
+    public static class Slot {
+        private final long ID;
+        private final String caregiverName;
+        private final LocalDate date;
+
+        public Slot(long ID, String caregiverName, LocalDate date) {
+            this.ID = ID;
+            this.caregiverName = caregiverName;
+            this.date = date;
+        }
+
+        // Getters
+        public long getID() {
+            return ID;
+        }
+
+        public String getCaregiverName() {
+            return caregiverName;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+    }
+
+    private static class Holder {
+        private static final SlotIndex INSTANCE = create();
+
+        private static SlotIndex create() {
+            try {
+                return new SlotIndex();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not build slot index", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package scheduler.inventory;
+
+import java.time.LocalDate;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// The free slots of one date in the SlotIndex, handed out by poll() in the order of the
+// AssignmentStrategy that made the queue. Every operation locks only this date's queue and takes
+// O(log n) or less; iterating works on a copy.
+//
+// A polled slot is out of the queue while it is being claimed, so no other reserver can pick it:
+// on this path the caregiver's bookings are the only load that matters.
+abstract class SlotQueue extends AbstractQueue<SlotIndex.Slot> {
+    final Map<Long, SlotIndex.Slot> slots = new HashMap<>();
+
+    // the slot poll() would hand out now, the queue is not empty
+    abstract SlotIndex.Slot next();
+
+    abstract void added(SlotIndex.Slot slot);
+
+    abstract void removed(SlotIndex.Slot slot);
+
+    @Override
+    public synchronized boolean offer(SlotIndex.Slot slot) {
+        SlotIndex.Slot replaced = slots.put(slot.getID(), slot);
+        if (replaced != null) {
+            removed(replaced);
+        }
+        added(slot);
+        return true;
+    }
+
+    @Override
+    public synchronized SlotIndex.Slot poll() {
+        if (slots.isEmpty()) {
+            return null;
+        }
+        SlotIndex.Slot slot = next();
+        slots.remove(slot.getID());
+        removed(slot);
+        return slot;
+    }
+
+    @Override
+    public synchronized SlotIndex.Slot peek() {
+        return slots.isEmpty() ? null : next();
+    }
+
+    public synchronized boolean removeID(long ID) {
+        SlotIndex.Slot slot = slots.remove(ID);
+        if (slot == null) {
+            return false;
+        }
+        removed(slot);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof SlotIndex.Slot && removeID(((SlotIndex.Slot) o).getID());
+    }
+
+    @Override
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    @Override
+    public synchronized Iterator<SlotIndex.Slot> iterator() {
+        return Collections.unmodifiableList(new ArrayList<>(slots.values())).iterator();
+    }
+
+    // lowest ID first
+    static class ByID extends SlotQueue {
+        final TreeMap<Long, SlotIndex.Slot> ordered = new TreeMap<>();
+
+        @Override
+        SlotIndex.Slot next() {
+            return ordered.firstEntry().getValue();
+        }
+
+        @Override
+        void added(SlotIndex.Slot slot) {
+            ordered.put(slot.getID(), slot);
+        }
+
+        @Override
+        void removed(SlotIndex.Slot slot) {
+            ordered.remove(slot.getID());
+        }
+    }
+
+    // the lowest ID after the one polled last, then from the start again
+    static class RoundRobin extends ByID {
+        private long cursor = Long.MIN_VALUE;
+
+        @Override
+        SlotIndex.Slot next() {
+            Map.Entry<Long, SlotIndex.Slot> after = ordered.ceilingEntry(cursor);
+            return after != null ? after.getValue() : ordered.firstEntry().getValue();
+        }
+
+        @Override
+        public synchronized SlotIndex.Slot poll() {
+            SlotIndex.Slot slot = super.poll();
+            if (slot != null) {
+                cursor = slot.getID() + 1;
+            }
+            return slot;
+        }
+    }
+
+    // The caregiver with the fewest bookings around the date, then the lowest ID. Keys are the
+    // loads seen when a slot was queued. Bookings only make loads grow, so a head whose load went
+    // up is queued again with the new one until the head is current; a load that dropped through
+    // a cancellation counts once the slot is queued again. Removed slots are dropped when they
+    // come up.
+    static class LeastLoaded extends SlotQueue {
+        private final LocalDate date;
+        private final CaregiverLoad load;
+        private final PriorityQueue<Keyed> heap = new PriorityQueue<>();
+
+        LeastLoaded(LocalDate date, CaregiverLoad load) {
+            this.date = date;
+            this.load = load;
+        }
+
+        @Override
+        SlotIndex.Slot next() {
+            while (true) {
+                Keyed head = heap.peek();
+                if (slots.get(head.slot.getID()) != head.slot) {
+                    heap.poll();
+                    continue;
+                }
+                int current = load.getLoad(date, head.slot.getCaregiverName());
+                if (current <= head.load) {
+                    return head.slot;
+                }
+                heap.poll();
+                heap.add(new Keyed(head.slot, current));
+            }
+        }
+
+        @Override
+        void added(SlotIndex.Slot slot) {
+            heap.add(new Keyed(slot, load.getLoad(date, slot.getCaregiverName())));
+            if (heap.size() > 2 * slots.size() + 16) {
+                heap.removeIf(keyed -> slots.get(keyed.slot.getID()) != keyed.slot);
+            }
+        }
+
+        @Override
+        void removed(SlotIndex.Slot slot) {
+            Keyed head = heap.peek();
+            if (head != null && head.slot == slot) {
+                heap.poll();
+            }
+        }
+
+        private static class Keyed implements Comparable<Keyed> {
+            private final SlotIndex.Slot slot;
+            private final int load;
+
+            Keyed(SlotIndex.Slot slot, int load) {
+                this.slot = slot;
+                this.load = load;
+            }
+
+            @Override
+            public int compareTo(Keyed other) {
+                int byLoad = Integer.compare(load, other.load);
+                return byLoad != 0 ? byLoad : Long.compare(slot.getID(), other.slot.getID());
+            }
+        }
+    }
+
+    // of two random slots the one whose caregiver has fewer bookings around the date
+    static class PowerOfTwo extends SlotQueue {
+        private final LocalDate date;
+        private final CaregiverLoad load;
+        private final List<SlotIndex.Slot> list = new ArrayList<>();
+        private final Map<Long, Integer> positions = new HashMap<>();
+
+        PowerOfTwo(LocalDate date, CaregiverLoad load) {
+            this.date = date;
+            this.load = load;
+        }
+
+        @Override
+        SlotIndex.Slot next() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            SlotIndex.Slot a = list.get(random.nextInt(list.size()));
+            SlotIndex.Slot b = list.get(random.nextInt(list.size()));
+            return load.getLoad(date, a.getCaregiverName()) <= load.getLoad(date, b.getCaregiverName()) ? a : b;
+        }
+
+        @Override
+        void added(SlotIndex.Slot slot) {
+            positions.put(slot.getID(), list.size());
+            list.add(slot);
+        }
+
+        // swap-remove, the order of the rest does not matter
+        @Override
+        void removed(SlotIndex.Slot slot) {
+            int position = positions.remove(slot.getID());
+            SlotIndex.Slot last = list.remove(list.size() - 1);
+            if (last != slot) {
+                list.set(position, last);
+                positions.put(last.getID(), position);
+            }
+        }
+    }
+}
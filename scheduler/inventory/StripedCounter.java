@@ -0,0 +1,98 @@
+package scheduler.inventory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A non-negative counter split into several stripes so that concurrent takers mostly CAS on
+// different cache lines. take() only succeeds if enough units are left, it never goes below zero.
+public class StripedCounter {
+    // stripes are spaced 8 longs (64 bytes) apart to avoid false sharing
+    private static final int PADDING = 8;
+
+    private final int stripes;
+    private final AtomicLongArray cells;
+
+    public StripedCounter(long initial) {
+        this(initial, Math.max(1, Integer.highestOneBit(Runtime.getRuntime().availableProcessors())));
+    }
+
+    public StripedCounter(long initial, int stripes) {
+        this.stripes = stripes;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+        add(initial);
+    }
+
+    public void add(long units) {
+        if (units < 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        // spread the units over the stripes so that takers rarely have to look at more than one
+        long share = units / stripes;
+        long rest = units % stripes;
+        for (int i = 0; i < stripes; i++) {
+            long add = share + (i < rest ? 1 : 0);
+            if (add > 0) {
+                cells.addAndGet(i * PADDING, add);
+            }
+        }
+    }
+
+    // takes the given number of units if that many are available in total
+    public boolean take(long units) {
+        if (units <= 0) {
+            throw new IllegalArgumentException("Argument must be positive!");
+        }
+        int start = ThreadLocalRandom.current().nextInt(stripes);
+        // fast path: a single stripe has enough
+        for (int i = 0; i < stripes; i++) {
+            int index = ((start + i) % stripes) * PADDING;
+            long current;
+            while ((current = cells.get(index)) >= units) {
+                if (cells.compareAndSet(index, current, current - units)) {
+                    return true;
+                }
+            }
+        }
+        // slow path: collect the units from several stripes, give them back if there are not enough
+        long collected = collect(start, units);
+        if (collected < units) {
+            if (collected > 0) {
+                add(collected);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // takes as many units as are available, up to the given number, and returns how many it took
+    public long takeUpTo(long units) {
+        if (units <= 0) {
+            throw new IllegalArgumentException("Argument must be positive!");
+        }
+        return collect(ThreadLocalRandom.current().nextInt(stripes), units);
+    }
+
+    private long collect(int start, long units) {
+        long collected = 0;
+        for (int i = 0; i < stripes && collected < units; i++) {
+            int index = ((start + i) % stripes) * PADDING;
+            long current;
+            while ((current = cells.get(index)) > 0) {
+                long grab = Math.min(current, units - collected);
+                if (cells.compareAndSet(index, current, current - grab)) {
+                    collected += grab;
+                    break;
+                }
+            }
+        }
+        return collected;
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < stripes; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,56 @@
+package scheduler.inventory;
+
+import scheduler.cache.Cache;
+import scheduler.db.ConnectionManager;
+import scheduler.util.Config;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Dose counts of all vaccines for display (search_caregiver_schedule), read from the database at
+// most every VaccineSnapshotMillis (1000) instead of on every search. Dose changes made by this
+// process call invalidate(), so only changes from other processes show up late. Reservations
+// never rely on these numbers, they check the doses in the database (or DoseInventory).
+public class VaccineSnapshot {
+    private static final Cache<String, Map<String, Long>> snapshot = new Cache.Builder<String, Map<String, Long>>("vaccineSnapshot")
+            .maxSize(1)
+            .ttlMillis(Config.getLong("VaccineSnapshotMillis", 1000))
+            .build();
+
+    // name -> doses for every vaccine, ordered by name
+    public static Map<String, Long> get() throws SQLException {
+        if (DoseInventory.isEnabled()) {
+            return DoseInventory.getInstance().snapshot();
+        }
+        return snapshot.get("all", VaccineSnapshot::load);
+    }
+
+    public static void invalidate() {
+        snapshot.invalidateAll();
+    }
+
+    private static Map<String, Long> load() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String selectVaccine = "SELECT Name, Doses FROM Vaccines";
+        try {
+            PreparedStatement statement = con.prepareStatement(selectVaccine);
+            ResultSet resultSet = statement.executeQuery();
+            Map<String, Long> loaded = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            while (resultSet.next()) {
+                loaded.put(resultSet.getString("Name"), resultSet.getLong("Doses"));
+            }
+            return Collections.unmodifiableMap(loaded);
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package scheduler.load;
+
+import scheduler.SchedulerSession;
+import scheduler.db.ConnectionManager;
+import scheduler.inventory.DoseInventory;
+import scheduler.server.SchedulerClient;
+import scheduler.util.Histogram;
+import scheduler.util.ThreadPools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// End-to-end load test for the booking path.
+//
+// Seeds caregivers (with availabilities), patients and vaccines through the normal commands,
+// then lets many virtual users run a mix of commands concurrently, either in this process
+// (target=local, the default) or against a running server (target=http://host:port).
+// Prints throughput and latency percentiles per command, and checks afterwards that no slot
+// was handed to two patients and no dose was sold twice.
+//
+//   java scheduler.load.LoadGenerator caregivers=20 patients=500 users=200 duration=60 \
+//        mix=reserve:50,search_caregiver_schedule:20,show_appointments:20,cancel:10
+public class LoadGenerator {
+    private static final Pattern APPOINTMENT_ID = Pattern.compile("Appointment ID: (\\d+)");
+
+    private final Map<String, String> options;
+    private final String target;
+    private final String prefix;
+    private final LocalDate firstDay;
+    private final int days;
+    private final List<String> vaccines = new ArrayList<>();
+    private final List<String> mix = new ArrayList<>();
+
+    // results
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> rejected = new ConcurrentHashMap<>();
+    // appointment ID -> patient currently holding it, according to the command output
+    private final ConcurrentHashMap<Long, String> booked = new ConcurrentHashMap<>();
+    private final LongAdder duplicateBookings = new LongAdder();
+    // successful reservations whose output had no appointment ID, the checks below can't use them
+    private final LongAdder unparsedReservations = new LongAdder();
+    private final LongAdder reservations = new LongAdder();
+    private final LongAdder cancellations = new LongAdder();
+    private final AtomicLong dosesAdded = new AtomicLong();
+    private boolean reconciled = false;
+
+    public LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.target = options.getOrDefault("target", "local");
+        this.prefix = options.getOrDefault("prefix", "lt" + Long.toString(System.currentTimeMillis(), 36));
+        this.firstDay = LocalDate.parse(options.getOrDefault("start", LocalDate.now().plusDays(1).toString()));
+        this.days = intOption("days", 14);
+        for (int i = 0; i < intOption("vaccines", 3); i++) {
+            vaccines.add(prefix + "vac" + i);
+        }
+        // mix=reserve:50,cancel:10 becomes a list with 50 "reserve" and 10 "cancel" entries to draw from
+        for (String part : options.getOrDefault("mix",
+                "reserve:50,search_caregiver_schedule:20,show_appointments:20,cancel:10").split(",")) {
+            String[] weighted = part.split(":");
+            int weight = weighted.length > 1 ? Integer.parseInt(weighted[1]) : 1;
+            mix.addAll(Collections.nCopies(weight, weighted[0]));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                System.out.println("Arguments are key=value pairs, got: " + arg);
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        generator.seed();
+        generator.run();
+        generator.report();
+        System.exit(generator.reconciled ? 0 : 1);
+    }
+
+    public void seed() throws Exception {
+        int caregivers = intOption("caregivers", 20);
+        int patients = intOption("patients", 200);
+        int doses = intOption("doses", 1000);
+        long start = System.nanoTime();
+        ExecutorService executor = ThreadPools.newPerTaskExecutor("load-seed");
+        List<Future<?>> tasks = new ArrayList<>();
+        LocalDate lastDay = firstDay.plusDays(days - 1);
+        for (int i = 0; i < caregivers; i++) {
+            String name = prefix + "cg" + i;
+            tasks.add(executor.submit(() -> {
+                Target t = newTarget();
+                t.execute("create_caregiver " + name + " pw");
+                t.execute("upload_availability " + firstDay + " " + lastDay + " daily");
+                return null;
+            }));
+        }
+        for (int i = 0; i < patients; i++) {
+            String name = prefix + "pt" + i;
+            tasks.add(executor.submit(() -> newTarget().execute("create_patient " + name + " pw")));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        Target admin = newTarget();
+        admin.execute("login_caregiver " + prefix + "cg0 pw");
+        for (String vaccine : vaccines) {
+            if (admin.execute("add_doses " + vaccine + " " + doses).contains("Doses updated!")) {
+                dosesAdded.addAndGet(doses);
+            }
+        }
+        executor.shutdown();
+        System.out.printf("Seeded %d caregivers x %d days, %d patients, %d vaccines in %.1fs%n",
+                caregivers, days, patients, vaccines.size(), (System.nanoTime() - start) / 1e9);
+    }
+
+    public void run() throws Exception {
+        int users = intOption("users", 50);
+        int caregiverUsers = intOption("caregiverUsers", 2);
+        int patients = intOption("patients", 200);
+        long durationNanos = TimeUnit.SECONDS.toNanos(intOption("duration", 30));
+        long thinkMillis = intOption("thinkMillis", 0);
+
+        ExecutorService executor = ThreadPools.newPerTaskExecutor("load-user");
+        List<Future<?>> tasks = new ArrayList<>();
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+        for (int i = 0; i < users; i++) {
+            String patient = prefix + "pt" + (i % patients);
+            tasks.add(executor.submit(() -> {
+                patientLoop(patient, deadline, thinkMillis);
+                return null;
+            }));
+        }
+        for (int i = 0; i < caregiverUsers; i++) {
+            String caregiver = prefix + "cg" + i;
+            tasks.add(executor.submit(() -> {
+                caregiverLoop(caregiver, deadline, thinkMillis);
+                return null;
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Ran %d patient users and %d caregiver users for %.1fs%n", users, caregiverUsers, seconds);
+        options.put("elapsed", Double.toString(seconds));
+    }
+
+    private void patientLoop(String patient, long deadline, long thinkMillis) throws Exception {
+        Target t = newTarget();
+        t.execute("login_patient " + patient + " pw");
+        List<Long> mine = new ArrayList<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            String command = mix.get(random.nextInt(mix.size()));
+            String date = firstDay.plusDays(random.nextInt(days)).toString();
+            switch (command) {
+                case "reserve" -> {
+                    String output = timed(t, command, "reserve " + date + " " + vaccines.get(random.nextInt(vaccines.size())));
+                    Matcher m = APPOINTMENT_ID.matcher(output);
+                    if (output.contains("Reservation successful!")) {
+                        reservations.increment();
+                        if (!m.find()) {
+                            unparsedReservations.increment();
+                            continue;
+                        }
+                        long ID = Long.parseLong(m.group(1));
+                        mine.add(ID);
+                        if (booked.putIfAbsent(ID, patient) != null) {
+                            duplicateBookings.increment();
+                        }
+                    } else if (output.contains("no caregivers available") || output.contains("is not available")) {
+                        rejected.computeIfAbsent(command, k -> new LongAdder()).increment();
+                    }
+                }
+                case "cancel" -> {
+                    if (mine.isEmpty()) {
+                        continue;
+                    }
+                    long ID = mine.remove(random.nextInt(mine.size()));
+                    // release first, the slot may be booked again as soon as the cancel commits
+                    booked.remove(ID, patient);
+                    String output = timed(t, command, "cancel " + ID);
+                    if (output.contains("Cancellation successful!")) {
+                        cancellations.increment();
+                    } else {
+                        booked.putIfAbsent(ID, patient);
+                        mine.add(ID);
+                    }
+                }
+                case "search_caregiver_schedule" -> timed(t, command, "search_caregiver_schedule " + date);
+                default -> timed(t, command, command);
+            }
+            if (thinkMillis > 0) {
+                Thread.sleep(thinkMillis);
+            }
+        }
+    }
+
+    private void caregiverLoop(String caregiver, long deadline, long thinkMillis) throws Exception {
+        Target t = newTarget();
+        t.execute("login_caregiver " + caregiver + " pw");
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int uploaded = 0;
+        while (System.nanoTime() < deadline) {
+            if (random.nextBoolean()) {
+                // new days after the seeded range, so they do not change the booking picture
+                timed(t, "upload_availability", "upload_availability " + firstDay.plusDays(days + uploaded++));
+            } else {
+                String output = timed(t, "add_doses", "add_doses " + vaccines.get(random.nextInt(vaccines.size())) + " 1");
+                if (output.contains("Doses updated!")) {
+                    dosesAdded.incrementAndGet();
+                }
+            }
+            Thread.sleep(Math.max(thinkMillis, 50));
+        }
+    }
+
+    private String timed(Target t, String command, String line) throws IOException {
+        long start = System.nanoTime();
+        String output = t.execute(line);
+        latencies.computeIfAbsent(command, k -> new Histogram()).record(System.nanoTime() - start);
+        if (output.contains("Error occurred") || output.contains("failed")) {
+            errors.computeIfAbsent(command, k -> new LongAdder()).increment();
+        }
+        return output;
+    }
+
+    public void report() throws Exception {
+        double seconds = Double.parseDouble(options.getOrDefault("elapsed", "1"));
+        System.out.println();
+        System.out.printf("%-28s%10s%10s%10s%10s%10s%10s%10s%10s%n",
+                "command", "count", "errors", "rejected", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(latencies).entrySet()) {
+            Histogram h = entry.getValue();
+            System.out.printf("%-28s%10d%10d%10d%10.1f%10.2f%10.2f%10.2f%10.2f%n",
+                    entry.getKey(), h.getCount(),
+                    count(errors, entry.getKey()), count(rejected, entry.getKey()),
+                    h.getCount() / seconds,
+                    h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(95) / 1e6,
+                    h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6);
+        }
+        System.out.println();
+        System.out.println("successful reservations: " + reservations.sum());
+        System.out.println("successful cancellations: " + cancellations.sum());
+        System.out.println("duplicate bookings (same slot reported to two patients): " + duplicateBookings.sum());
+        if (unparsedReservations.sum() > 0) {
+            System.out.println("reservations without an appointment ID in the output: " + unparsedReservations.sum());
+        }
+        checkDatabase();
+    }
+
+    // compares what the users were told with what ended up in the database
+    private void checkDatabase() {
+        if (DoseInventory.isEnabled() && target.equals("local")) {
+            try {
+                DoseInventory.getInstance().flush();
+            } catch (Exception e) {
+                System.out.println("Could not flush dose inventory: " + e.getMessage());
+            }
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        String countBooked = "SELECT COUNT(*) FROM Availabilities WHERE CaregiverName LIKE ? AND PatientName IS NOT NULL";
+        String sumDoses = "SELECT SUM(Doses), MIN(Doses) FROM Vaccines WHERE Name LIKE ?";
+        String getHolder = "SELECT PatientName FROM Availabilities WHERE ID = ?";
+        try {
+            PreparedStatement statement_1 = con.prepareStatement(countBooked);
+            statement_1.setString(1, prefix + "cg%");
+            ResultSet resultSet_1 = statement_1.executeQuery();
+            resultSet_1.next();
+            long bookedRows = resultSet_1.getLong(1);
+
+            PreparedStatement statement_2 = con.prepareStatement(sumDoses);
+            statement_2.setString(1, prefix + "vac%");
+            ResultSet resultSet_2 = statement_2.executeQuery();
+            resultSet_2.next();
+            long dosesLeft = resultSet_2.getLong(1);
+            long minDoses = resultSet_2.getLong(2);
+
+            PreparedStatement statement_3 = con.prepareStatement(getHolder);
+            long lost = 0;
+            for (Map.Entry<Long, String> entry : booked.entrySet()) {
+                statement_3.setLong(1, entry.getKey());
+                ResultSet resultSet_3 = statement_3.executeQuery();
+                if (!resultSet_3.next() || !entry.getValue().equals(resultSet_3.getString("PatientName"))) {
+                    lost++;
+                }
+            }
+
+            long held = reservations.sum() - cancellations.sum();
+            long expectedDoses = dosesAdded.get() - held;
+            System.out.println("booked slots in database: " + bookedRows + " (expected " + held + ")");
+            System.out.println("doses left in database: " + dosesLeft + " (expected " + expectedDoses + ")");
+            System.out.println("oversold doses: " + Math.max(0, expectedDoses - dosesLeft)
+                    + (minDoses < 0 ? " (negative stock!)" : ""));
+            System.out.println("appointments not held by the patient that was told it booked them: " + lost);
+            reconciled = bookedRows == held && dosesLeft == expectedDoses && minDoses >= 0
+                    && duplicateBookings.sum() == 0 && lost == 0 && unparsedReservations.sum() == 0;
+            System.out.println("counts reconcile: " + (reconciled ? "yes" : "NO"));
+        } catch (SQLException e) {
+            System.out.println("Could not check the database: " + e.getMessage());
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static long count(Map<String, LongAdder> counters, String command) {
+        LongAdder counter = counters.get(command);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, Integer.toString(defaultValue)));
+    }
+
+    private Target newTarget() throws IOException {
+        if (target.equals("local")) {
+            return new LocalTarget();
+        }
+        SchedulerClient client = new SchedulerClient(target);
+        client.openSession();
+        return client::execute;
+    }
+
+    private interface Target {
+        String execute(String line) throws IOException;
+    }
+
+    // runs the commands in this process, each virtual user has its own session
+    private static class LocalTarget implements Target {
+        private final SchedulerSession session = new SchedulerSession();
+
+        @Override
+        public String execute(String line) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            session.execute(line.split(" "), new PrintStream(buffer, true, StandardCharsets.UTF_8));
+            return buffer.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package scheduler.metrics;
+
+import scheduler.util.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency and database cost of one command (or of background work)
+public class CommandMetrics implements CommandMetricsMXBean {
+    private final String name;
+    private final Histogram latency = new Histogram();
+    private final Histogram statementLatency = new Histogram();
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder sqlErrors = new LongAdder();
+
+    CommandMetrics(String name) {
+        this.name = name;
+    }
+
+    void recordInvocation(long nanos) {
+        invocations.increment();
+        latency.record(nanos);
+    }
+
+    void recordConnection() {
+        connections.increment();
+    }
+
+    void recordStatement(long nanos, boolean failed) {
+        statements.increment();
+        statementLatency.record(nanos);
+        if (failed) {
+            sqlErrors.increment();
+        }
+    }
+
+    void recordRow() {
+        rows.increment();
+    }
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public Histogram getStatementLatency() {
+        return statementLatency;
+    }
+
+    @Override
+    public long getInvocations() {
+        return invocations.sum();
+    }
+
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    public long getStatements() {
+        return statements.sum();
+    }
+
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getSqlErrors() {
+        return sqlErrors.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getValueAtPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getP95Millis() {
+        return latency.getValueAtPercentile(95) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMax() / 1e6;
+    }
+
+    @Override
+    public double getConnectionsPerInvocation() {
+        return perInvocation(connections.sum());
+    }
+
+    @Override
+    public double getStatementsPerInvocation() {
+        return perInvocation(statements.sum());
+    }
+
+    @Override
+    public double getRowsPerInvocation() {
+        return perInvocation(rows.sum());
+    }
+
+    private double perInvocation(long total) {
+        long n = invocations.sum();
+        return n == 0 ? 0.0 : (double) total / n;
+    }
+}
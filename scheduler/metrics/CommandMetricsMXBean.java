@@ -0,0 +1,24 @@
+package scheduler.metrics;
+
+// Per-command numbers exposed over JMX as scheduler:type=CommandMetrics,name=<command>
+public interface CommandMetricsMXBean {
+    long getInvocations();
+
+    long getSqlErrors();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    double getConnectionsPerInvocation();
+
+    double getStatementsPerInvocation();
+
+    double getRowsPerInvocation();
+}
@@ -0,0 +1,237 @@
+package scheduler.metrics;
+
+import scheduler.cache.Cache;
+import scheduler.db.Async;
+import scheduler.db.ConnectionManager;
+import scheduler.db.PoolStats;
+import scheduler.db.Retry;
+import scheduler.events.EventLog;
+import scheduler.inventory.CaregiverLoad;
+import scheduler.util.Config;
+import scheduler.util.Histogram;
+import scheduler.util.ThreadPools;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+
+// Per-command latency and database cost.
+//
+// SchedulerSession wraps every command in begin()/close(); the connection pool and the JDBC
+// wrappers report connections, statements and rows to whatever command runs on the current
+// thread. Work outside of a command (flushers, index loading) is counted as "background".
+// The numbers are available over JMX (scheduler:type=CommandMetrics,name=...), as Prometheus
+// text (toPrometheus(), also /metrics in server mode, together with pool and cache numbers) and,
+// with MetricsDumpIntervalSeconds > 0, written to MetricsDumpFile (metrics.prom) periodically.
+public class Metrics {
+    private static final ConcurrentHashMap<String, CommandMetrics> commands = new ConcurrentHashMap<>();
+    private static final CommandMetrics background = forCommand("background");
+    private static final ThreadLocal<CommandMetrics> current = new ThreadLocal<>();
+    private static final Histogram connectionWait = new Histogram();
+
+    static {
+        startDumper();
+    }
+
+    public static CommandMetrics forCommand(String name) {
+        return commands.computeIfAbsent(name, Metrics::register);
+    }
+
+    // Starts timing a command on this thread, close the scope when it is done
+    public static Scope begin(String command) {
+        return new Scope(forCommand(command));
+    }
+
+    // the command running on this thread, e.g. to carry it over to another thread
+    public static CommandMetrics current() {
+        CommandMetrics metrics = current.get();
+        return metrics == null ? background : metrics;
+    }
+
+    // Runs work on behalf of the given command on this thread, without timing it again
+    public static Scope attach(CommandMetrics metrics) {
+        return new Scope(metrics, false);
+    }
+
+    public static void connectionAcquired(long waitNanos) {
+        connectionWait.record(waitNanos);
+        current().recordConnection();
+    }
+
+    public static void statementExecuted(long nanos, boolean failed) {
+        current().recordStatement(nanos, failed);
+    }
+
+    public static void rowFetched() {
+        current().recordRow();
+    }
+
+    public static Map<String, CommandMetrics> getCommands() {
+        return new TreeMap<>(commands);
+    }
+
+    public static String toText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-28s%10s%10s%10s%10s%10s%10s%10s%10s%10s%n",
+                "command", "count", "sqlErr", "mean ms", "p50 ms", "p95 ms", "p99 ms", "conn/op", "stmt/op", "rows/op"));
+        for (CommandMetrics m : getCommands().values()) {
+            sb.append(String.format(Locale.ROOT, "%-28s%10d%10d%10.2f%10.2f%10.2f%10.2f%10.2f%10.2f%10.2f%n",
+                    m.getName(), m.getInvocations(), m.getSqlErrors(), m.getMeanMillis(), m.getP50Millis(),
+                    m.getP95Millis(), m.getP99Millis(), m.getConnectionsPerInvocation(),
+                    m.getStatementsPerInvocation(), m.getRowsPerInvocation()));
+        }
+        return sb.toString();
+    }
+
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE scheduler_command_duration_seconds summary\n");
+        for (CommandMetrics m : getCommands().values()) {
+            Histogram h = m.getLatency();
+            for (double q : new double[]{0.5, 0.95, 0.99}) {
+                sb.append(String.format(Locale.ROOT, "scheduler_command_duration_seconds{command=\"%s\",quantile=\"%s\"} %.6f\n",
+                        m.getName(), q, h.getValueAtPercentile(q * 100) / 1e9));
+            }
+            sb.append(String.format(Locale.ROOT, "scheduler_command_duration_seconds_sum{command=\"%s\"} %.6f\n",
+                    m.getName(), h.getSum() / 1e9));
+            sb.append(String.format(Locale.ROOT, "scheduler_command_duration_seconds_count{command=\"%s\"} %d\n",
+                    m.getName(), h.getCount()));
+        }
+        counter(sb, "scheduler_command_connections_total", "connections borrowed", CommandMetrics::getConnections);
+        counter(sb, "scheduler_command_statements_total", "statements executed", CommandMetrics::getStatements);
+        counter(sb, "scheduler_command_rows_total", "rows fetched", CommandMetrics::getRows);
+        counter(sb, "scheduler_command_sql_errors_total", "failed statements", CommandMetrics::getSqlErrors);
+
+        sb.append("# TYPE scheduler_connection_wait_seconds summary\n");
+        for (double q : new double[]{0.5, 0.95, 0.99}) {
+            sb.append(String.format(Locale.ROOT, "scheduler_connection_wait_seconds{quantile=\"%s\"} %.6f\n",
+                    q, connectionWait.getValueAtPercentile(q * 100) / 1e9));
+        }
+        sb.append(String.format(Locale.ROOT, "scheduler_connection_wait_seconds_count %d\n", connectionWait.getCount()));
+        PoolStats pool = ConnectionManager.getPoolStats();
+        sb.append("# TYPE scheduler_pool_connections gauge\n");
+        sb.append("scheduler_pool_connections{state=\"active\"} ").append(pool.getActive()).append('\n');
+        sb.append("scheduler_pool_connections{state=\"idle\"} ").append(pool.getIdle()).append('\n');
+        sb.append("# TYPE scheduler_pool_waiters gauge\n");
+        sb.append("scheduler_pool_waiters ").append(pool.getWaiters()).append('\n');
+        sb.append("# TYPE scheduler_pool_physical_connections_opened_total counter\n");
+        sb.append("scheduler_pool_physical_connections_opened_total ").append(pool.getCreated()).append('\n');
+        sb.append("# TYPE scheduler_async_permits_available gauge\n");
+        sb.append("scheduler_async_permits_available ").append(Async.getAvailablePermits()).append('\n');
+        sb.append("# TYPE scheduler_db_retries_total counter\n");
+        sb.append("scheduler_db_retries_total ").append(Retry.getRetryCount()).append('\n');
+        sb.append("# TYPE scheduler_event_log_appends_total counter\n");
+        sb.append("scheduler_event_log_appends_total ").append(EventLog.getAppendCount()).append('\n');
+        sb.append("# TYPE scheduler_event_log_syncs_total counter\n");
+        sb.append("scheduler_event_log_syncs_total ").append(EventLog.getSyncCount()).append('\n');
+        sb.append("# TYPE scheduler_slot_claims_total counter\n");
+        sb.append("scheduler_slot_claims_total ").append(CaregiverLoad.getInstance().getClaimCount()).append('\n');
+        sb.append("# TYPE scheduler_slot_claim_conflicts_total counter\n");
+        sb.append("scheduler_slot_claim_conflicts_total ").append(CaregiverLoad.getInstance().getConflictCount()).append('\n');
+
+        Map<String, Cache<?, ?>> caches = Cache.getAll();
+        sb.append("# TYPE scheduler_cache_requests_total counter\n");
+        for (Cache<?, ?> cache : caches.values()) {
+            sb.append("scheduler_cache_requests_total{cache=\"").append(cache.getName()).append("\",result=\"hit\"} ")
+                    .append(cache.getHitCount()).append('\n');
+            sb.append("scheduler_cache_requests_total{cache=\"").append(cache.getName()).append("\",result=\"miss\"} ")
+                    .append(cache.getMissCount()).append('\n');
+        }
+        sb.append("# TYPE scheduler_cache_evictions_total counter\n");
+        for (Cache<?, ?> cache : caches.values()) {
+            sb.append("scheduler_cache_evictions_total{cache=\"").append(cache.getName()).append("\"} ")
+                    .append(cache.getEvictionCount()).append('\n');
+        }
+        sb.append("# TYPE scheduler_cache_size gauge\n");
+        for (Cache<?, ?> cache : caches.values()) {
+            sb.append("scheduler_cache_size{cache=\"").append(cache.getName()).append("\"} ")
+                    .append(cache.getSize()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, String name, String help,
+                                java.util.function.ToLongFunction<CommandMetrics> value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (CommandMetrics m : getCommands().values()) {
+            sb.append(name).append("{command=\"").append(m.getName()).append("\"} ")
+                    .append(value.applyAsLong(m)).append('\n');
+        }
+    }
+
+    private static CommandMetrics register(String name) {
+        CommandMetrics metrics = new CommandMetrics(name);
+        try {
+            ObjectName objectName = new ObjectName("scheduler:type=CommandMetrics,name=" + ObjectName.quote(name));
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            }
+        } catch (Exception e) {
+            // metrics still work without JMX
+        }
+        return metrics;
+    }
+
+    private static void startDumper() {
+        long interval = Config.getLong("MetricsDumpIntervalSeconds", 0);
+        if (interval <= 0) {
+            return;
+        }
+        Path file = Paths.get(Config.get("MetricsDumpFile", "metrics.prom"));
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(ThreadPools.daemonThreads("metrics-dump"));
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                // write next to the target and move it over, so scrapers never see half a file
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.writeString(tmp, toPrometheus(), StandardCharsets.UTF_8);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Could not write metrics: " + e.getMessage());
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public static class Scope implements AutoCloseable {
+        private final CommandMetrics metrics;
+        private final CommandMetrics previous;
+        private final boolean timed;
+        private final long start;
+
+        private Scope(CommandMetrics metrics) {
+            this(metrics, true);
+        }
+
+        private Scope(CommandMetrics metrics, boolean timed) {
+            this.metrics = metrics;
+            this.previous = current.get();
+            this.timed = timed;
+            this.start = System.nanoTime();
+            current.set(metrics);
+        }
+
+        @Override
+        public void close() {
+            if (timed) {
+                metrics.recordInvocation(System.nanoTime() - start);
+            }
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+}
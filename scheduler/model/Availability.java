@@ -1,16 +1,32 @@
 package scheduler.model;
 
+import scheduler.db.Async;
 import scheduler.db.ConnectionManager;
+import scheduler.db.Dialect;
+import scheduler.db.IdAllocator;
+import scheduler.db.UnitOfWork;
+import scheduler.events.Event;
+import scheduler.events.EventLog;
+import scheduler.inventory.AssignmentStrategy;
+import scheduler.inventory.CaregiverLoad;
+import scheduler.inventory.SlotIndex;
 
+import java.io.PrintStream;
 import java.sql.*;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class Availability {
+    // must match INCREMENT BY of the AvailabilityIDs sequence in V2__availability_ids.sql
+    private static final int ID_BLOCK_SIZE = 100;
+    private static final IdAllocator idAllocator = new IdAllocator("AvailabilityIDs", ID_BLOCK_SIZE);
+
     private final String caregiverName;
     private String patientName;
     private String vaccineName;
     private final Date date;
-    private final int ID;
+    private final long ID;
 
     private Availability(AvailabilityBuilder builder) {
         this.caregiverName = builder.caregiverName;
@@ -28,15 +44,23 @@ public class Availability {
         this.ID = getter.ID;
     }
 
+    private Availability(AvailabilityReserver reserver) {
+        this.caregiverName = reserver.caregiverName;
+        this.patientName = reserver.patientName;
+        this.vaccineName = reserver.vaccineName;
+        this.date = reserver.date;
+        this.ID = reserver.ID;
+    }
+
     // Output appointment detail
-    public void printAppointmentDetail() {
+    public void printAppointmentDetail(PrintStream out) {
         if (this.patientName != null) {
-            System.out.println("=====================================");
-            System.out.printf("Caregiver name: %s\n", getCaregiverName());
-            System.out.printf("Appointment ID: %d\n", getID());
-            System.out.println("=====================================");
+            out.println("=====================================");
+            out.printf("Caregiver name: %s\n", getCaregiverName());
+            out.printf("Appointment ID: %d\n", getID());
+            out.println("=====================================");
         } else {
-            System.out.println("This slot is not booked yet!");
+            out.println("This slot is not booked yet!");
         }
     }
 
@@ -46,18 +70,18 @@ public class Availability {
     }
 
     public String getPatientName() {
-        return caregiverName;
+        return patientName;
     }
 
     public String getVaccineName() {
-        return caregiverName;
+        return vaccineName;
     }
 
     public Date getDate() {
         return date;
     }
 
-    public int getID() {
+    public long getID() {
         return ID;
     }
 
@@ -72,8 +96,13 @@ public class Availability {
             statement.setString(2, this.patientName);   // might be null
             statement.setString(3, this.vaccineName);   // might be null
             statement.setDate(4, this.date);
-            statement.setInt(5, this.ID);
+            statement.setLong(5, this.ID);
             statement.executeUpdate();
+            if (SlotIndex.isEnabled() && this.patientName == null) {
+                SlotIndex.getInstance().add(this.date, this.ID, this.caregiverName);
+            }
+            EventLog.record(Event.slot(this.patientName == null ? Event.Type.SLOT_ADDED : Event.Type.SLOT_BOOKED,
+                    this.ID, this.date, this.caregiverName, this.patientName, this.vaccineName));
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -81,6 +110,10 @@ public class Availability {
         }
     }
 
+    public CompletableFuture<Void> saveToDBAsync() {
+        return Async.run(this::saveToDB);
+    }
+
     public void bookAppointment(String patientName, String vaccineName) throws SQLException {
         // update Availability Object fields
         this.patientName = patientName;
@@ -98,6 +131,10 @@ public class Availability {
             statement.setString(3, this.caregiverName);
             statement.setDate(4, this.date);
             statement.executeUpdate();
+            if (SlotIndex.isEnabled()) {
+                SlotIndex.getInstance().remove(this.date, this.ID);
+            }
+            EventLog.record(Event.slot(Event.Type.SLOT_BOOKED, this.ID, this.date, this.caregiverName, patientName, vaccineName));
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -105,42 +142,74 @@ public class Availability {
         }
     }
 
-    public void cancelAppointment(String canceller, int ID) throws SQLException {
-        // update Availability Object fields
-        this.patientName = null;
-        this.vaccineName = null;
+    public CompletableFuture<Void> bookAppointmentAsync(String patientName, String vaccineName) {
+        return Async.run(() -> bookAppointment(patientName, vaccineName));
+    }
 
-        // SQL query
-        String cancelAppointment = "";
-        if (canceller.equals("Caregiver")) {    // delete the entire tuple
-            cancelAppointment  = "DELETE Availabilities WHERE ID = ? ";
-        } else if (canceller.equals("Patient")) {
-            cancelAppointment  = "UPDATE Availabilities SET PatientName = ?, VaccineName = ?  " +
-                    "WHERE ID = ?";
+    // Cancels the appointment with the given ID held by the username, in one statement: a
+    // caregiver deletes the slot, a patient gives it back. Returns the row as it was before, or
+    // null if the user holds no such appointment. The dose of a booked slot is the caller's to
+    // return; inside a UnitOfWork the SlotIndex is only updated once it commits.
+    public static Availability cancel(String canceller, String username, long ID) throws SQLException {
+        boolean byCaregiver = canceller.equals("Caregiver");
+        String cancelAppointment;
+        if (ConnectionManager.getDialect() == Dialect.SQL_SERVER) {
+            cancelAppointment = byCaregiver
+                    ? "DELETE FROM Availabilities OUTPUT deleted.CaregiverName, deleted.PatientName, deleted.VaccineName, deleted.Time " +
+                      "WHERE ID = ? AND CaregiverName = ?"
+                    : "UPDATE Availabilities SET PatientName = NULL, VaccineName = NULL " +
+                      "OUTPUT deleted.CaregiverName, deleted.PatientName, deleted.VaccineName, deleted.Time " +
+                      "WHERE ID = ? AND PatientName = ?";
+        } else {
+            cancelAppointment = "SELECT CaregiverName, PatientName, VaccineName, Time FROM OLD TABLE (" + (byCaregiver
+                    ? "DELETE FROM Availabilities WHERE ID = ? AND CaregiverName = ?"
+                    : "UPDATE Availabilities SET PatientName = NULL, VaccineName = NULL WHERE ID = ? AND PatientName = ?") + ")";
         }
+
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
         try {
             PreparedStatement statement = con.prepareStatement(cancelAppointment);
-            if (canceller.equals("Caregiver")) {    // delete the entire tuple
-                statement.setInt(1, ID);
-            } else if (canceller.equals("Patient")) {   // update tuple
-                statement.setString(1, patientName);
-                statement.setString(2, vaccineName);
-                statement.setInt(3, ID);
+            statement.setLong(1, ID);
+            statement.setString(2, username);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
             }
-            statement.executeUpdate();
+            AvailabilityGetter before = new AvailabilityGetter(resultSet.getString("CaregiverName"), resultSet.getDate("Time"));
+            before.patientName = resultSet.getString("PatientName");
+            before.vaccineName = resultSet.getString("VaccineName");
+            before.ID = ID;
+            UnitOfWork.runAfterCommit(() -> {
+                if (SlotIndex.isEnabled()) {
+                    if (byCaregiver) {
+                        SlotIndex.getInstance().remove(before.date, ID);
+                    } else {
+                        SlotIndex.getInstance().add(before.date, ID, before.caregiverName);
+                    }
+                }
+                if (before.patientName != null) {
+                    CaregiverLoad.getInstance().released(before.date.toLocalDate(), before.caregiverName);
+                }
+                EventLog.record(Event.slot(byCaregiver ? Event.Type.SLOT_REMOVED : Event.Type.SLOT_FREED,
+                        ID, before.date, before.caregiverName, before.patientName, before.vaccineName));
+            });
+            return new Availability(before);
         } catch (SQLException e) {
-            throw new SQLException();
+            throw new SQLException(e);
         } finally {
             cm.closeConnection();
         }
     }
 
+    public static CompletableFuture<Availability> cancelAsync(String canceller, String username, long ID) {
+        return Async.supply(() -> cancel(canceller, username, ID));
+    }
+
     public static class AvailabilityBuilder {
         private final String caregiverName;
         private final Date date;
-        private final int ID;
+        private final long ID;
 
         public AvailabilityBuilder(String caregiverName, Date date) throws SQLException {
             this.caregiverName = caregiverName;
@@ -152,28 +221,9 @@ public class Availability {
             return new Availability(this);
         }
 
-        private int generateID() throws SQLException {
-            // generate non-duplicate ID
-            boolean generate = true;
-            Random r = new Random();
-            int ID = -1;
-            while(generate) {
-                ID = r.nextInt(10000) + 1;
-                ConnectionManager cm = new ConnectionManager();
-                Connection con = cm.createConnection();
-                String getAppointment = "SELECT * FROM Availabilities WHERE ID = ?";
-                try {
-                    PreparedStatement statement = con.prepareStatement(getAppointment);
-                    statement.setInt(1, ID);
-                    ResultSet resultSet = statement.executeQuery();
-                    generate = resultSet.isBeforeFirst();
-                } catch (SQLException e) {
-                    throw new SQLException();
-                } finally {
-                    cm.closeConnection();
-                }
-            }
-            return ID;
+        private long generateID() throws SQLException {
+            // IDs come from a block reserved from the AvailabilityIDs sequence, no lookup needed
+            return idAllocator.next();
         }
     }
 
@@ -182,7 +232,7 @@ public class Availability {
         private String patientName;
         private String vaccineName;
         private final Date date;
-        private int ID;
+        private long ID;
 
         public AvailabilityGetter(String caregiverName, Date date) {
             this.caregiverName = caregiverName;
@@ -203,7 +253,7 @@ public class Availability {
                 while (resultSet.next()) {
                     this.patientName = resultSet.getString("PatientName");
                     this.vaccineName = resultSet.getString("VaccineName");
-                    this.ID = resultSet.getInt("ID");
+                    this.ID = resultSet.getLong("ID");
                     return new Availability(this);
                 }
                 return null;
@@ -213,5 +263,299 @@ public class Availability {
                 cm.closeConnection();
             }
         }
+
+        public CompletableFuture<Availability> getAsync() {
+            return Async.supply(this::get);
+        }
+    }
+
+    // Books a free slot on the given date and takes one dose of the vaccine in a single round trip.
+    // Both updates run in one server-side transaction: the slot is claimed with UPDLOCK/READPAST so
+    // concurrent reservers skip rows that are being booked instead of double booking them, and the
+    // dose is only taken if Doses > 0, so stock can never go negative. XACT_ABORT rolls the batch
+    // back on any error, and a vaccine that doesn't exist (the VaccineName foreign key) is reported
+    // as NO_DOSES like one that ran out.
+    public static class AvailabilityReserver {
+        public enum Status { BOOKED, NO_CAREGIVER, NO_DOSES }
+
+        // the first free row of the date in the order of the AssignmentStrategy, parameters: date,
+        // the strategy's, patient, vaccine
+        private static final AssignmentStrategy strategy = AssignmentStrategy.getDefault();
+        private static final String claimFirst =
+                "WITH candidate AS (SELECT TOP (1) a.PatientName, a.VaccineName, a.ID, a.CaregiverName " +
+                "FROM Availabilities a WITH (UPDLOCK, READPAST, ROWLOCK) " +
+                "WHERE a.Time = ? AND a.PatientName IS NULL ORDER BY " + strategy.sqlOrder() + ") " +
+                "UPDATE candidate SET PatientName = ?, VaccineName = ? " +
+                "OUTPUT inserted.ID, inserted.CaregiverName INTO @slot; ";
+        private static final String reserve =
+                "SET NOCOUNT ON; SET XACT_ABORT ON; " +
+                "DECLARE @slot TABLE (ID bigint, CaregiverName varchar(255)); " +
+                "BEGIN TRANSACTION; " +
+                claimFirst +
+                "IF NOT EXISTS (SELECT 1 FROM @slot) " +
+                "BEGIN ROLLBACK TRANSACTION; SELECT 1 AS Status, NULL AS ID, NULL AS CaregiverName; RETURN; END; " +
+                "UPDATE Vaccines WITH (ROWLOCK) SET Doses = Doses - 1, Version = Version + 1 WHERE Name = ? AND Doses > 0; " +
+                "IF @@ROWCOUNT = 0 " +
+                "BEGIN ROLLBACK TRANSACTION; SELECT 2 AS Status, NULL AS ID, NULL AS CaregiverName; RETURN; END; " +
+                "COMMIT TRANSACTION; " +
+                "SELECT 0 AS Status, ID, CaregiverName FROM @slot;";
+        // used when the doses are taken from the in-memory inventory instead
+        private static final String reserveSlot =
+                "SET NOCOUNT ON; SET XACT_ABORT ON; " +
+                "DECLARE @slot TABLE (ID bigint, CaregiverName varchar(255)); " +
+                claimFirst +
+                "IF NOT EXISTS (SELECT 1 FROM @slot) " +
+                "BEGIN SELECT 1 AS Status, NULL AS ID, NULL AS CaregiverName; RETURN; END; " +
+                "SELECT 0 AS Status, ID, CaregiverName FROM @slot;";
+        // claim a slot picked from the SlotIndex, with and without taking a dose
+        private static final String claimById =
+                "SET NOCOUNT ON; SET XACT_ABORT ON; " +
+                "BEGIN TRANSACTION; " +
+                "UPDATE Availabilities WITH (ROWLOCK) SET PatientName = ?, VaccineName = ? " +
+                "WHERE ID = ? AND PatientName IS NULL; " +
+                "IF @@ROWCOUNT = 0 " +
+                "BEGIN ROLLBACK TRANSACTION; SELECT 1 AS Status; RETURN; END; " +
+                "UPDATE Vaccines WITH (ROWLOCK) SET Doses = Doses - 1, Version = Version + 1 WHERE Name = ? AND Doses > 0; " +
+                "IF @@ROWCOUNT = 0 " +
+                "BEGIN ROLLBACK TRANSACTION; SELECT 2 AS Status; RETURN; END; " +
+                "COMMIT TRANSACTION; " +
+                "SELECT 0 AS Status;";
+        private static final String claimSlotById =
+                "SET NOCOUNT ON; SET XACT_ABORT ON; " +
+                "UPDATE Availabilities WITH (ROWLOCK) SET PatientName = ?, VaccineName = ? " +
+                "WHERE ID = ? AND PatientName IS NULL; " +
+                "SELECT CASE WHEN @@ROWCOUNT = 0 THEN 1 ELSE 0 END AS Status;";
+
+        private final String patientName;
+        private final String vaccineName;
+        private final Date date;
+        private String caregiverName;
+        private long ID;
+        private Status status;
+        private boolean takeDose = true;
+
+        public AvailabilityReserver(String patientName, String vaccineName, Date date) {
+            this.patientName = patientName;
+            this.vaccineName = vaccineName;
+            this.date = date;
+        }
+
+        // only claim the slot, the caller already took the dose (e.g. from the DoseInventory)
+        public AvailabilityReserver withoutDose() {
+            this.takeDose = false;
+            return this;
+        }
+
+        // returns the booked appointment, or null if nothing was booked (see getStatus() for the reason)
+        public Availability reserve() throws SQLException {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+            try {
+                if (SlotIndex.isEnabled()) {
+                    reserveFromIndex(con);
+                } else if (ConnectionManager.getDialect() == Dialect.SQL_SERVER) {
+                    reserveInBatch(con);
+                } else {
+                    reserveInSteps(con);
+                }
+                if (this.status == Status.BOOKED) {
+                    // inside a unit of work only once it commits, a rolled back booking never happened
+                    UnitOfWork.runAfterCommit(this::booked);
+                }
+                return this.status == Status.BOOKED ? new Availability(this) : null;
+            } catch (SQLException e) {
+                if (isUnknownVaccine(e)) {
+                    this.status = Status.NO_DOSES;
+                    return null;
+                }
+                throw new SQLException(e);
+            } finally {
+                cm.closeConnection();
+            }
+        }
+
+        // what a booking changes outside the database
+        private void booked() {
+            CaregiverLoad.getInstance().booked(this.date.toLocalDate(), this.caregiverName);
+            EventLog.record(Event.slot(Event.Type.SLOT_BOOKED, this.ID, this.date, this.caregiverName,
+                    this.patientName, this.vaccineName));
+            if (takeDose) {
+                Vaccine.invalidate(this.vaccineName);
+                EventLog.record(Event.doses(this.vaccineName, -1));
+            }
+        }
+
+        public CompletableFuture<Availability> reserveAsync() {
+            return Async.supply(this::reserve);
+        }
+
+        private void reserveInBatch(Connection con) throws SQLException {
+            PreparedStatement statement = con.prepareStatement(takeDose ? reserve : reserveSlot);
+            statement.setDate(1, this.date);
+            int index = strategy.bindOrder(statement, 2, this.date.toLocalDate());
+            statement.setString(index, this.patientName);
+            statement.setString(index + 1, this.vaccineName);
+            if (takeDose) {
+                statement.setString(index + 2, this.vaccineName);
+            }
+            ResultSet resultSet = readStatus(statement);
+            this.status = toStatus(resultSet.getInt("Status"));
+            if (this.status == Status.BOOKED) {
+                this.ID = resultSet.getLong("ID");
+                this.caregiverName = resultSet.getString("CaregiverName");
+                strategy.assigned(this.date.toLocalDate(), this.ID);
+            }
+        }
+
+        // For databases without T-SQL batches: try the free slots of the day one by one, in the
+        // order of the AssignmentStrategy; a slot taken by someone else in the meantime is skipped.
+        private void reserveInSteps(Connection con) throws SQLException {
+            String findSlots = "SELECT ID, CaregiverName FROM Availabilities WHERE Time = ? AND PatientName IS NULL";
+            PreparedStatement statement = con.prepareStatement(findSlots);
+            statement.setDate(1, this.date);
+            ResultSet resultSet = statement.executeQuery();
+            List<SlotIndex.Slot> candidates = new ArrayList<>();
+            while (resultSet.next()) {
+                candidates.add(new SlotIndex.Slot(resultSet.getLong("ID"), resultSet.getString("CaregiverName"),
+                        this.date.toLocalDate()));
+            }
+            CaregiverLoad load = CaregiverLoad.getInstance();
+            this.status = Status.NO_CAREGIVER;
+            for (SlotIndex.Slot slot : AssignmentStrategy.getDefault().order(this.date.toLocalDate(), candidates, load)) {
+                this.status = claim(con, slot);
+                if (this.status == Status.BOOKED) {
+                    this.ID = slot.getID();
+                    this.caregiverName = slot.getCaregiverName();
+                }
+                if (this.status != Status.NO_CAREGIVER) {
+                    break;
+                }
+            }
+        }
+
+        // Candidate slots come from the in-memory SlotIndex, the database only sees the claim
+        private void reserveFromIndex(Connection con) throws SQLException {
+            SlotIndex index = SlotIndex.getInstance();
+            this.status = Status.NO_CAREGIVER;
+            SlotIndex.Slot slot;
+            while (this.status == Status.NO_CAREGIVER && (slot = index.poll(this.date)) != null) {
+                try {
+                    this.status = claim(con, slot);
+                } catch (SQLException e) {
+                    index.add(slot);
+                    throw e;
+                }
+                if (this.status == Status.BOOKED) {
+                    this.ID = slot.getID();
+                    this.caregiverName = slot.getCaregiverName();
+                } else if (this.status == Status.NO_DOSES) {
+                    index.add(slot);    // the slot is still free
+                }
+                // NO_CAREGIVER: the slot was booked by someone else, drop it and try the next one
+            }
+        }
+
+        // Books the slot if it is still free, counted in the CaregiverLoad while it runs
+        private Status claim(Connection con, SlotIndex.Slot slot) throws SQLException {
+            CaregiverLoad load = CaregiverLoad.getInstance();
+            load.claimStarted(slot.getDate(), slot.getCaregiverName());
+            Status claimed = null;
+            try {
+                claimed = claim(con, slot.getID());
+                return claimed;
+            } finally {
+                load.claimFinished(slot.getDate(), slot.getCaregiverName(), claimed == Status.NO_CAREGIVER);
+            }
+        }
+
+        // Books the slot with the given ID if it is still free and takes a dose, in one transaction
+        private Status claim(Connection con, long ID) throws SQLException {
+            if (ConnectionManager.getDialect() == Dialect.SQL_SERVER) {
+                PreparedStatement statement = con.prepareStatement(takeDose ? claimById : claimSlotById);
+                statement.setString(1, this.patientName);
+                statement.setString(2, this.vaccineName);
+                statement.setLong(3, ID);
+                if (takeDose) {
+                    statement.setString(4, this.vaccineName);
+                }
+                return toStatus(readStatus(statement).getInt("Status"));
+            }
+
+            String claimSlot = "UPDATE Availabilities SET PatientName = ?, VaccineName = ? WHERE ID = ? AND PatientName IS NULL";
+            String decreaseDoses = "UPDATE Vaccines SET Doses = Doses - 1, Version = Version + 1 WHERE Name = ? AND Doses > 0";
+            con.setAutoCommit(false);
+            try {
+                Status claimed = Status.BOOKED;
+                PreparedStatement statement_1 = con.prepareStatement(claimSlot);
+                statement_1.setString(1, this.patientName);
+                statement_1.setString(2, this.vaccineName);
+                statement_1.setLong(3, ID);
+                if (statement_1.executeUpdate() == 0) {
+                    claimed = Status.NO_CAREGIVER;
+                } else if (takeDose) {
+                    PreparedStatement statement_2 = con.prepareStatement(decreaseDoses);
+                    statement_2.setString(1, this.vaccineName);
+                    if (statement_2.executeUpdate() == 0) {
+                        claimed = Status.NO_DOSES;
+                    }
+                }
+                if (claimed == Status.BOOKED) {
+                    con.commit();
+                } else {
+                    con.rollback();
+                }
+                return claimed;
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+        }
+
+        // skips update counts until the status row of a reservation batch
+        private static ResultSet readStatus(PreparedStatement statement) throws SQLException {
+            boolean isResultSet = statement.execute();
+            while (!isResultSet && statement.getUpdateCount() != -1) {
+                isResultSet = statement.getMoreResults();
+            }
+            if (!isResultSet) {
+                throw new SQLException("Reservation returned no status");
+            }
+            ResultSet resultSet = statement.getResultSet();
+            if (!resultSet.next()) {
+                throw new SQLException("Reservation returned no status");
+            }
+            return resultSet;
+        }
+
+        // a foreign key violation: SQL Server error 547, H2 state 23506 (parent row missing)
+        private static boolean isUnknownVaccine(SQLException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof SQLException) {
+                    SQLException sqlException = (SQLException) cause;
+                    if ("23506".equals(sqlException.getSQLState())
+                            || (ConnectionManager.getDialect() == Dialect.SQL_SERVER && sqlException.getErrorCode() == 547)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static Status toStatus(int code) {
+            switch (code) {
+                case 0:
+                    return Status.BOOKED;
+                case 1:
+                    return Status.NO_CAREGIVER;
+                default:
+                    return Status.NO_DOSES;
+            }
+        }
+
+        public Status getStatus() {
+            return status;
+        }
     }
 }
@@ -1,12 +1,32 @@
 package scheduler.model;
 
+import scheduler.cache.Cache;
+import scheduler.db.Async;
 import scheduler.db.ConnectionManager;
+import scheduler.events.Event;
+import scheduler.events.EventLog;
+import scheduler.inventory.SlotIndex;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
+import java.io.PrintStream;
 import java.sql.*;
-import java.util.Arrays;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class Caregiver {
+    // salt and hash per username, shared by CaregiverGetter and exists()
+    private static final Cache<String, Credentials> credentials = Credentials.newCache("caregivers");
+    // checking a username that is definitely free needs neither the cache nor the database
+    private static final UsernameFilter usernames = new UsernameFilter("Caregivers");
+
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -47,6 +67,8 @@ public class Caregiver {
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
             statement.executeUpdate();
+            credentials.put(Credentials.key(this.username), new Credentials(this.salt, this.hash));
+            usernames.added(this.username);
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -54,26 +76,163 @@ public class Caregiver {
         }
     }
 
+    public CompletableFuture<Void> saveToDBAsync() {
+        return Async.run(this::saveToDB);
+    }
+
     public void uploadAvailability(Date d) throws SQLException {
+        uploadAvailability(Collections.singletonList(d));
+    }
+
+    public int uploadAvailability(List<Date> dates) throws SQLException {
+        return uploadAvailability(dates, System.out);
+    }
+
+    // Uploads all given dates in one transaction. Dates that already exist for this caregiver
+    // are found with a single range query and skipped, the rest are inserted as one JDBC batch.
+    // What was uploaded and skipped is reported to out.
+    public int uploadAvailability(List<Date> dates, PrintStream out) throws SQLException {
+        if (dates.isEmpty()) {
+            out.println("No dates to upload!");
+            return 0;
+        }
+        Date first = Collections.min(dates);
+        Date last = Collections.max(dates);
+        // Take the IDs before the connection: fetching the next ID block borrows a connection of
+        // its own, and holding one here while waiting for another can drain the pool. Dates that
+        // turn out to exist already just leave a gap in the sequence.
+        Map<LocalDate, Availability> candidates = new HashMap<>();
+        for (Date d : dates) {
+            if (!candidates.containsKey(d.toLocalDate())) {
+                candidates.put(d.toLocalDate(), new Availability.AvailabilityBuilder(this.username, d).build());
+            }
+        }
+
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        // check if the given availability already exists or not
-        String checkAvailabilityExist = "SELECT * FROM Availabilities WHERE CaregiverName = ? AND Time = ?";
-        PreparedStatement statement_1 = con.prepareStatement(checkAvailabilityExist);
-        statement_1.setString(1, this.username);
-        statement_1.setDate(2, d);
-        ResultSet resultSet = statement_1.executeQuery();
-        if (resultSet.isBeforeFirst()) {    // already exists
-            System.out.println(d + " is already an existing availability for " + this.username);
-        } else {    // not exists (upload availability)
-            try {
-                Availability currentAvailability = new Availability.AvailabilityBuilder(this.username, d).build();
-                currentAvailability.saveToDB();
-                System.out.println("Availability uploaded!");
-            } catch (SQLException e) {
-                throw new SQLException();
+        String checkAvailabilityExist = "SELECT Time FROM Availabilities WHERE CaregiverName = ? AND Time BETWEEN ? AND ?";
+        String addAvailability = "INSERT INTO Availabilities VALUES (?, ?, ?, ?, ?)";
+        try {
+            con.setAutoCommit(false);
+            // check which of the given availabilities already exist
+            PreparedStatement statement_1 = con.prepareStatement(checkAvailabilityExist);
+            statement_1.setString(1, this.username);
+            statement_1.setDate(2, first);
+            statement_1.setDate(3, last);
+            ResultSet resultSet = statement_1.executeQuery();
+            Set<LocalDate> existing = new HashSet<>();
+            while (resultSet.next()) {
+                existing.add(resultSet.getDate("Time").toLocalDate());
+            }
+
+            // upload the rest in one batch
+            PreparedStatement statement_2 = con.prepareStatement(addAvailability);
+            Set<LocalDate> queued = new HashSet<>();
+            List<Availability> uploaded = new ArrayList<>();
+            for (Date d : dates) {
+                if (existing.contains(d.toLocalDate())) {
+                    out.println(d + " is already an existing availability for " + this.username);
+                } else if (queued.add(d.toLocalDate())) {
+                    Availability availability = candidates.get(d.toLocalDate());
+                    statement_2.setString(1, this.username);
+                    statement_2.setNull(2, Types.VARCHAR);
+                    statement_2.setNull(3, Types.VARCHAR);
+                    statement_2.setDate(4, d);
+                    statement_2.setLong(5, availability.getID());
+                    statement_2.addBatch();
+                    uploaded.add(availability);
+                }
+            }
+            if (!queued.isEmpty()) {
+                statement_2.executeBatch();
             }
+            con.commit();
+            if (SlotIndex.isEnabled()) {
+                for (Availability availability : uploaded) {
+                    SlotIndex.getInstance().add(availability.getDate(), availability.getID(), this.username);
+                }
+            }
+            for (Availability availability : uploaded) {
+                EventLog.record(Event.slot(Event.Type.SLOT_ADDED, availability.getID(), availability.getDate(),
+                        this.username, null, null));
+            }
+            if (queued.size() == 1) {
+                out.println("Availability uploaded!");
+            } else if (queued.size() > 1) {
+                out.printf("%d availabilities uploaded!\n", queued.size());
+            }
+            return queued.size();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public CompletableFuture<Integer> uploadAvailabilityAsync(List<Date> dates) {
+        return Async.supply(() -> uploadAvailability(dates));
+    }
+
+    public static boolean exists(String username) throws SQLException {
+        if (!usernames.mightExist(username)) {
+            return false;
+        }
+        return credentials.get(Credentials.key(username), () -> loadCredentials(username)) != null;
+    }
+
+    public static CompletableFuture<Boolean> existsAsync(String username) {
+        return Async.supply(() -> exists(username));
+    }
+
+    private static Credentials loadCredentials(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(getCaregiver);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return new Credentials(resultSet.getBytes("Salt"), resultSet.getBytes("Hash"));
+            }
+            return null;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Replaces a hash made with older settings after the password was verified. If another
+    // login got there first, or the update fails, the old hash stays and still works.
+    private static Credentials upgradeHash(String username, String password, Credentials old) {
+        byte[] salt = Util.generateSalt();
+        byte[] hash = PasswordHasher.getInstance().hash(password, salt);
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String updateHash = "UPDATE Caregivers SET Salt = ?, Hash = ? WHERE Username = ? AND Hash = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(updateHash);
+            statement.setBytes(1, salt);
+            statement.setBytes(2, hash);
+            statement.setString(3, username);
+            statement.setBytes(4, old.getHash());
+            if (statement.executeUpdate() == 0) {
+                credentials.invalidate(Credentials.key(username));
+                return old;
+            }
+            Credentials upgraded = new Credentials(salt, hash);
+            credentials.put(Credentials.key(username), upgraded);
+            return upgraded;
+        } catch (SQLException e) {
+            return old;
+        } finally {
+            cm.closeConnection();
         }
     }
 
@@ -105,35 +264,25 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            Credentials stored = credentials.get(Credentials.key(this.username), () -> loadCredentials(this.username));
+            if (stored == null) {
+                return null;
+            }
+            // check if the password matches
+            PasswordHasher hasher = PasswordHasher.getInstance();
+            if (!hasher.verify(password, stored.getSalt(), stored.getHash())) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            if (hasher.needsRehash(stored.getHash())) {
+                stored = upgradeHash(this.username, password, stored);
+            }
+            this.salt = stored.getSalt();
+            this.hash = stored.getHash();
+            return new Caregiver(this);
+        }
+
+        public CompletableFuture<Caregiver> getAsync() {
+            return Async.supply(this::get);
         }
     }
 }
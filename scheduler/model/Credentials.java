@@ -0,0 +1,41 @@
+package scheduler.model;
+
+import scheduler.cache.Cache;
+import scheduler.util.Config;
+
+import java.util.Locale;
+
+// Salt and hash of one account, as cached by Patient and Caregiver (the hash as stored, see
+// PasswordHasher). Accounts are never deleted and only change when a login upgrades the hash,
+// which updates the entry. AccountCacheMillis limits how long accounts created by other
+// processes can stay unseen.
+class Credentials {
+    private final byte[] salt;
+    private final byte[] hash;
+
+    Credentials(byte[] salt, byte[] hash) {
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    static Cache<String, Credentials> newCache(String name) {
+        return new Cache.Builder<String, Credentials>(name)
+                .maxSize(Config.getInt("AccountCacheSize", 10_000))
+                .ttlMillis(Config.getLong("AccountCacheMillis", 10 * 60_000))
+                .negativeTtlMillis(Config.getLong("AccountCacheMissMillis", 5_000))
+                .build();
+    }
+
+    // usernames compare case-insensitively in the database
+    static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    byte[] getSalt() {
+        return salt;
+    }
+
+    byte[] getHash() {
+        return hash;
+    }
+}
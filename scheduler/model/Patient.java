@@ -1,12 +1,20 @@
 package scheduler.model;
 
+import scheduler.cache.Cache;
+import scheduler.db.Async;
 import scheduler.db.ConnectionManager;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 public class Patient {
+    // salt and hash per username, shared by PatientGetter and exists()
+    private static final Cache<String, Credentials> credentials = Credentials.newCache("patients");
+    // checking a username that is definitely free needs neither the cache nor the database
+    private static final UsernameFilter usernames = new UsernameFilter("Patients");
+
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -47,6 +55,43 @@ public class Patient {
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
             statement.executeUpdate();
+            credentials.put(Credentials.key(this.username), new Credentials(this.salt, this.hash));
+            usernames.added(this.username);
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public CompletableFuture<Void> saveToDBAsync() {
+        return Async.run(this::saveToDB);
+    }
+
+    public static boolean exists(String username) throws SQLException {
+        if (!usernames.mightExist(username)) {
+            return false;
+        }
+        return credentials.get(Credentials.key(username), () -> loadCredentials(username)) != null;
+    }
+
+    public static CompletableFuture<Boolean> existsAsync(String username) {
+        return Async.supply(() -> exists(username));
+    }
+
+    private static Credentials loadCredentials(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(getPatient);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return new Credentials(resultSet.getBytes("Salt"), resultSet.getBytes("Hash"));
+            }
+            return null;
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -54,6 +99,36 @@ public class Patient {
         }
     }
 
+    // Replaces a hash made with older settings after the password was verified. If another
+    // login got there first, or the update fails, the old hash stays and still works.
+    private static Credentials upgradeHash(String username, String password, Credentials old) {
+        byte[] salt = Util.generateSalt();
+        byte[] hash = PasswordHasher.getInstance().hash(password, salt);
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String updateHash = "UPDATE Patients SET Salt = ?, Hash = ? WHERE Username = ? AND Hash = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(updateHash);
+            statement.setBytes(1, salt);
+            statement.setBytes(2, hash);
+            statement.setString(3, username);
+            statement.setBytes(4, old.getHash());
+            if (statement.executeUpdate() == 0) {
+                credentials.invalidate(Credentials.key(username));
+                return old;
+            }
+            Credentials upgraded = new Credentials(salt, hash);
+            credentials.put(Credentials.key(username), upgraded);
+            return upgraded;
+        } catch (SQLException e) {
+            return old;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
     public static class PatientBuilder {
         private final String username;
         private final byte[] salt;
@@ -82,35 +157,25 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
+            Credentials stored = credentials.get(Credentials.key(this.username), () -> loadCredentials(this.username));
+            if (stored == null) {
+                return null;
+            }
+            // check if the password matches
+            PasswordHasher hasher = PasswordHasher.getInstance();
+            if (!hasher.verify(password, stored.getSalt(), stored.getHash())) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            if (hasher.needsRehash(stored.getHash())) {
+                stored = upgradeHash(this.username, password, stored);
+            }
+            this.salt = stored.getSalt();
+            this.hash = stored.getHash();
+            return new Patient(this);
+        }
+
+        public CompletableFuture<Patient> getAsync() {
+            return Async.supply(this::get);
         }
     }
 }
@@ -0,0 +1,119 @@
+package scheduler.model;
+
+import scheduler.cache.BloomFilter;
+import scheduler.db.ConnectionManager;
+import scheduler.util.Config;
+import scheduler.util.ThreadPools;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Bloom filter of the usernames taken in one account table, so that checking a free username
+// during account creation does not need the database. Logins do not use it: an account created
+// on another server a moment ago must still be able to log in here.
+//
+// The filter is loaded in the background when the class is first used and rebuilt every
+// UsernameFilterRefreshMinutes (10) to pick up accounts created by other processes; until the
+// first load is done every name counts as possibly taken. A "possibly taken" answer is verified
+// against the database, and the primary key still decides when two processes create the same
+// account at once. UsernameFilter=false switches it off.
+class UsernameFilter {
+    private static final boolean ENABLED = Config.getBoolean("UsernameFilter", true);
+    private static final long CAPACITY = Config.getLong("UsernameFilterCapacity", 1_000_000);
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final ScheduledExecutorService loader =
+            Executors.newSingleThreadScheduledExecutor(ThreadPools.daemonThreads("username-filter"));
+
+    private final String table;
+    private volatile BloomFilter filter;
+    // the filter being rebuilt, new accounts go into both. added() and the swap in rebuild() hold
+    // the lock, so an account added during a rebuild is always in the filter that gets published.
+    private BloomFilter next;
+
+    UsernameFilter(String table) {
+        this.table = table;
+        if (ENABLED) {
+            long refresh = Config.getLong("UsernameFilterRefreshMinutes", 10);
+            loader.scheduleWithFixedDelay(this::rebuild, 0, refresh, TimeUnit.MINUTES);
+        }
+    }
+
+    // false means the username is definitely not taken
+    boolean mightExist(String username) {
+        BloomFilter current = filter;
+        return current == null || current.mightContain(Credentials.key(username));
+    }
+
+    // called after the account was committed
+    synchronized void added(String username) {
+        String key = Credentials.key(username);
+        if (filter != null) {
+            filter.add(key);
+        }
+        if (next != null) {
+            next.add(key);
+        }
+    }
+
+    // An account committed before next is set is read by load(), one added after it goes into
+    // next directly, so the published filter has both.
+    private void rebuild() {
+        try {
+            BloomFilter rebuilt = new BloomFilter(Math.max(CAPACITY, 2 * countAccounts()), FALSE_POSITIVE_RATE);
+            synchronized (this) {
+                next = rebuilt;
+            }
+            load(rebuilt);
+            synchronized (this) {
+                filter = rebuilt;
+                next = null;
+            }
+        } catch (SQLException | RuntimeException e) {
+            // keep the previous filter (or none), lookups fall back to the database
+            System.out.println("Could not load usernames from " + table + ": " + e.getMessage());
+            synchronized (this) {
+                next = null;
+            }
+        }
+    }
+
+    private long countAccounts() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String countUsers = "SELECT COUNT(*) FROM " + table;
+        try {
+            PreparedStatement statement = con.prepareStatement(countUsers);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void load(BloomFilter rebuilt) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String selectUsers = "SELECT Username FROM " + table;
+        try {
+            PreparedStatement statement = con.prepareStatement(selectUsers);
+            statement.setFetchSize(10_000);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                rebuilt.add(Credentials.key(resultSet.getString(1)));
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -1,13 +1,34 @@
 package scheduler.model;
 
+import scheduler.cache.Cache;
+import scheduler.db.Async;
 import scheduler.db.ConnectionManager;
+import scheduler.db.Dialect;
+import scheduler.db.Retry;
+import scheduler.db.UnitOfWork;
+import scheduler.events.Event;
+import scheduler.events.EventLog;
+import scheduler.inventory.VaccineSnapshot;
+import scheduler.util.Config;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntUnaryOperator;
 
 public class Vaccine {
+    // doses per vaccine, read through by VaccineGetter. Reservations change the doses on the
+    // database side, so entries live for VaccineCacheMillis (1000) only and every dose change
+    // made by this process drops them.
+    private static final Cache<String, Integer> doses = new Cache.Builder<String, Integer>("vaccines")
+            .maxSize(Config.getInt("VaccineCacheSize", 1000))
+            .ttlMillis(Config.getLong("VaccineCacheMillis", 1000))
+            .negativeTtlMillis(Config.getLong("VaccineCacheMillis", 1000))
+            .build();
+
     private final String vaccineName;
     private int availableDoses;
 
@@ -34,12 +55,14 @@ public class Vaccine {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
+        String addDoses = "INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)";
         try {
             PreparedStatement statement = con.prepareStatement(addDoses);
             statement.setString(1, this.vaccineName);
             statement.setInt(2, this.availableDoses);
             statement.executeUpdate();
+            invalidate(this.vaccineName);
+            EventLog.record(Event.doses(this.vaccineName, this.availableDoses));
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -47,49 +70,135 @@ public class Vaccine {
         }
     }
 
-    // Increment the available doses
+    public CompletableFuture<Void> saveToDBAsync() {
+        return Async.run(this::saveToDB);
+    }
+
+    // Increment the available doses, availableDoses becomes the new total
     public void increaseAvailableDoses(int num) throws SQLException {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        Integer left = changeDoses(this.vaccineName, num);
+        if (left == null) {
+            throw new SQLException("Vaccine " + this.vaccineName + " does not exist");
         }
+        this.availableDoses = left;
     }
 
-    // Decrement the available doses
+    public CompletableFuture<Void> increaseAvailableDosesAsync(int num) {
+        return Async.run(() -> increaseAvailableDoses(num));
+    }
+
+    // Decrement the available doses, only if enough are left in the database
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        Integer left = changeDoses(this.vaccineName, -num);
+        if (left == null) {
             throw new IllegalArgumentException("Not enough available doses!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        this.availableDoses = left;
+    }
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+    public CompletableFuture<Void> decreaseAvailableDosesAsync(int num) {
+        return Async.run(() -> decreaseAvailableDoses(num));
+    }
+
+    // Gives back doses of a cancelled appointment. Takes part in an open UnitOfWork.
+    public static void returnDoses(String vaccineName, int num) throws SQLException {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        changeDoses(vaccineName, num);
+    }
+
+    // For changes that are not a plain delta: computes the new number of doses from the current
+    // row and writes it only if the row's Version is still the one that was read, otherwise
+    // reads it again (see Retry). Returns null if there is no such vaccine.
+    public static Vaccine updateAvailableDoses(String vaccineName, IntUnaryOperator change) throws SQLException {
+        return Retry.run(() -> {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+
+            String getVaccine = "SELECT Doses, Version FROM Vaccines WHERE Name = ?";
+            String setDoses = "UPDATE Vaccines SET Doses = ?, Version = Version + 1 WHERE Name = ? AND Version = ?";
+            try {
+                PreparedStatement statement_1 = con.prepareStatement(getVaccine);
+                statement_1.setString(1, vaccineName);
+                ResultSet resultSet = statement_1.executeQuery();
+                if (!resultSet.next()) {
+                    return null;
+                }
+                int before = resultSet.getInt("Doses");
+                int doses = change.applyAsInt(before);
+                long version = resultSet.getLong("Version");
+                if (doses < 0) {
+                    throw new IllegalArgumentException("Not enough available doses!");
+                }
+                PreparedStatement statement_2 = con.prepareStatement(setDoses);
+                statement_2.setInt(1, doses);
+                statement_2.setString(2, vaccineName);
+                statement_2.setLong(3, version);
+                if (statement_2.executeUpdate() == 0) {
+                    throw new SQLException("Vaccine " + vaccineName + " was changed concurrently", Retry.CONFLICT);
+                }
+                UnitOfWork.runAfterCommit(() -> {
+                    invalidate(vaccineName);
+                    EventLog.record(Event.doses(vaccineName, doses - before));
+                });
+                return new VaccineBuilder(vaccineName, doses).build();
+            } finally {
+                cm.closeConnection();
+            }
+        });
+    }
+
+    // Adds delta to the doses on the database side, so concurrent changes all count, and returns
+    // the new number of doses; null (and no change) if the vaccine does not exist or a negative
+    // delta is larger than the doses left.
+    private static Integer changeDoses(String vaccineName, int delta) throws SQLException {
+        String changeDoses;
+        if (ConnectionManager.getDialect() == Dialect.SQL_SERVER) {
+            changeDoses = "UPDATE Vaccines SET Doses = Doses + ?, Version = Version + 1 OUTPUT inserted.Doses " +
+                    "WHERE Name = ? AND Doses >= ?";
+        } else {
+            changeDoses = "SELECT Doses FROM FINAL TABLE (" +
+                    "UPDATE Vaccines SET Doses = Doses + ?, Version = Version + 1 WHERE Name = ? AND Doses >= ?)";
         }
+        return Retry.run(() -> {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+            try {
+                PreparedStatement statement = con.prepareStatement(changeDoses);
+                statement.setInt(1, delta);
+                statement.setString(2, vaccineName);
+                statement.setInt(3, Math.max(0, -delta));
+                ResultSet resultSet = statement.executeQuery();
+                Integer left = resultSet.next() ? resultSet.getInt("Doses") : null;
+                if (left != null) {
+                    UnitOfWork.runAfterCommit(() -> {
+                        invalidate(vaccineName);
+                        EventLog.record(Event.doses(vaccineName, delta));
+                    });
+                }
+                return left;
+            } finally {
+                cm.closeConnection();
+            }
+        });
+    }
+
+    // called after every change of a vaccine's doses
+    public static void invalidate(String vaccineName) {
+        doses.invalidate(key(vaccineName));
+        VaccineSnapshot.invalidate();
+    }
+
+    // vaccine names compare case-insensitively in the database
+    private static String key(String vaccineName) {
+        return vaccineName.toLowerCase(Locale.ROOT);
     }
 
     @Override
@@ -123,17 +232,29 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
+            Integer stored = doses.get(key(this.vaccineName), () -> loadDoses(this.vaccineName));
+            if (stored == null) {
+                return null;
+            }
+            this.availableDoses = stored;
+            return new Vaccine(this);
+        }
+
+        public CompletableFuture<Vaccine> getAsync() {
+            return Async.supply(this::get);
+        }
+
+        private static Integer loadDoses(String vaccineName) throws SQLException {
             ConnectionManager cm = new ConnectionManager();
             Connection con = cm.createConnection();
 
             String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
             try {
                 PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
+                statement.setString(1, vaccineName);
                 ResultSet resultSet = statement.executeQuery();
                 while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
+                    return resultSet.getInt("Doses");
                 }
                 return null;
             } catch (SQLException e) {
@@ -144,4 +265,3 @@ public class Vaccine {
         }
     }
 }
-
@@ -0,0 +1,78 @@
+package scheduler.server;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Talks to a SchedulerServer, used by the REPL in --connect mode and by the load generator
+public class SchedulerClient {
+    private final HttpClient http;
+    private final URI baseUri;
+    private String token;
+    private String loginStatus = "user not logged-in yet";
+
+    public SchedulerClient(String baseUrl) {
+        this.http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        this.baseUri = URI.create(baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+    }
+
+    public void openSession() throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("api/sessions"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        this.token = send(request).get("token");
+    }
+
+    public void closeSession() throws IOException {
+        if (token == null) {
+            return;
+        }
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("api/sessions"))
+                .header(SchedulerServer.TOKEN_HEADER, token)
+                .DELETE()
+                .build();
+        send(request);
+        token = null;
+    }
+
+    // Runs a command line on the server and returns what it printed
+    public String execute(String command) throws IOException {
+        if (token == null) {
+            openSession();
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("command", command);
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("api/commands"))
+                .header(SchedulerServer.TOKEN_HEADER, token)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(Json.write(body), StandardCharsets.UTF_8))
+                .build();
+        Map<String, String> response = send(request);
+        this.loginStatus = response.get("login");
+        return response.get("output");
+    }
+
+    public String getLoginStatus() {
+        return loginStatus;
+    }
+
+    private Map<String, String> send(HttpRequest request) throws IOException {
+        try {
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            Map<String, String> body = Json.read(response.body());
+            if (response.statusCode() >= 400) {
+                throw new IOException("Server returned " + response.statusCode() + ": " + body.get("error"));
+            }
+            return body;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while talking to the server", e);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package scheduler.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import scheduler.SchedulerSession;
+import scheduler.db.ConnectionManager;
+import scheduler.db.PoolStats;
+import scheduler.db.SqlTracer;
+import scheduler.metrics.Metrics;
+import scheduler.util.Config;
+import scheduler.util.ThreadPools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Serves the scheduler commands over HTTP/JSON so that one process can serve many users.
+//
+//   POST   /api/sessions   -> {"token": "..."}                      start a session
+//   POST   /api/commands   {"command": "reserve 2022-06-01 Pfizer"} run a command in the session
+//   DELETE /api/sessions   end the session
+//   GET    /api/health     liveness and connection pool numbers
+//   GET    /metrics        per-command metrics in Prometheus text format
+//   GET    /api/sql-stats  per-statement timings, when SqlTrace=true
+//
+// Requests other than creating a session carry the session token in the X-Session-Token header.
+// Every request runs on its own (virtual) thread, all sessions share the connection pool.
+public class SchedulerServer {
+    public static final String TOKEN_HEADER = "X-Session-Token";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService reaper;
+    private final ConcurrentHashMap<String, SessionEntry> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long sessionTimeoutMillis;
+
+    public SchedulerServer(int port) throws IOException {
+        this.sessionTimeoutMillis = Config.getLong("SessionTimeoutMinutes", 30) * 60_000;
+        this.server = HttpServer.create(new InetSocketAddress(Config.get("ServerHost", "127.0.0.1"), port),
+                Config.getInt("ServerBacklog", 1024));
+        this.executor = ThreadPools.newPerTaskExecutor("scheduler-http");
+        this.server.setExecutor(executor);
+        this.server.createContext("/api/sessions", this::handleSessions);
+        this.server.createContext("/api/commands", this::handleCommands);
+        this.server.createContext("/api/health", this::handleHealth);
+        this.server.createContext("/metrics", this::handleMetrics);
+        this.server.createContext("/api/sql-stats", this::handleSqlStats);
+
+        this.reaper = Executors.newSingleThreadScheduledExecutor(ThreadPools.daemonThreads("session-reaper"));
+        this.reaper.scheduleWithFixedDelay(this::expireSessions, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Config.getInt("ServerPort", 8080);
+        SchedulerServer server = new SchedulerServer(port);
+        server.start();
+        System.out.println("Scheduler server listening on port " + server.getPort());
+    }
+
+    public void start() {
+        // open the pool before the first request instead of during it
+        ConnectionManager.getPool();
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        reaper.shutdownNow();
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private void handleSessions(HttpExchange exchange) throws IOException {
+        try {
+            switch (exchange.getRequestMethod()) {
+                case "POST" -> {
+                    String token = newToken();
+                    sessions.put(token, new SessionEntry());
+                    Map<String, Object> response = new LinkedHashMap<>();
+                    response.put("token", token);
+                    send(exchange, 201, response);
+                }
+                case "DELETE" -> {
+                    String token = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+                    if (token == null || sessions.remove(token) == null) {
+                        sendError(exchange, 404, "Unknown session");
+                    } else {
+                        send(exchange, 200, new LinkedHashMap<>());
+                    }
+                }
+                default -> sendError(exchange, 405, "Method not allowed");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleCommands(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            String token = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+            SessionEntry entry = token == null ? null : sessions.get(token);
+            if (entry == null) {
+                sendError(exchange, 401, "Unknown or expired session");
+                return;
+            }
+            entry.lastUsed = System.currentTimeMillis();
+
+            String command;
+            try {
+                String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                command = Json.read(body).get("command");
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, "Invalid JSON: " + e.getMessage());
+                return;
+            }
+            if (command == null) {
+                sendError(exchange, 400, "Missing command");
+                return;
+            }
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+            entry.session.execute(command.trim().split(" "), out);
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("output", buffer.toString(StandardCharsets.UTF_8));
+            response.put("login", entry.session.getLoginStatus());
+            send(exchange, 200, response);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try {
+            PoolStats stats = ConnectionManager.getPoolStats();
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("status", "ok");
+            response.put("sessions", sessions.size());
+            response.put("poolActive", stats.getActive());
+            response.put("poolIdle", stats.getIdle());
+            response.put("poolWaiters", stats.getWaiters());
+            send(exchange, 200, response);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            sendText(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", Metrics.toPrometheus());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleSqlStats(HttpExchange exchange) throws IOException {
+        try {
+            if (!SqlTracer.isEnabled()) {
+                sendError(exchange, 404, "SQL tracing is off, start the server with SqlTrace=true");
+                return;
+            }
+            sendText(exchange, 200, "text/plain; charset=utf-8", SqlTracer.toText());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void expireSessions() {
+        long cutoff = System.currentTimeMillis() - sessionTimeoutMillis;
+        sessions.values().removeIf(entry -> entry.lastUsed < cutoff);
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("error", message);
+        send(exchange, status, response);
+    }
+
+    private static void send(HttpExchange exchange, int status, Map<String, Object> body) throws IOException {
+        sendText(exchange, status, "application/json; charset=utf-8", Json.write(body));
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static class SessionEntry {
+        private final SchedulerSession session = new SchedulerSession();
+        private volatile long lastUsed = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,164 @@
+package scheduler.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Password hashing with a cost that can be raised without breaking existing accounts.
+//
+// A hash describes how it was made: a format byte, the algorithm, the iteration count and then
+// the derived key. New hashes use PasswordAlgorithm (PBKDF2WithHmacSHA256), PasswordIterations
+// (100000) and PasswordKeyBytes (32); hashes made with other settings, including the 16-bit
+// PBKDF2WithHmacSHA1 hashes of the first version (see Util.generateHash), still verify, and
+// needsRehash() tells the login to store a new one.
+//
+// Hashing is CPU bound, so it runs on PasswordHashThreads (one per core) worker threads with at
+// most PasswordHashQueue (1000) waiting requests; the callers wait for the result, however many
+// request threads there are. SecretKeyFactory instances are cached per worker thread.
+public class PasswordHasher {
+    private static final byte FORMAT = 1;
+    // algorithm ids stored in the hash, never renumber
+    private static final String[] ALGORITHMS = {"", "PBKDF2WithHmacSHA1", "PBKDF2WithHmacSHA256", "PBKDF2WithHmacSHA512"};
+    private static final int HEADER_BYTES = 6;
+    // the first version stored PBKDF2WithHmacSHA1, 10 iterations, 16 bits in a BINARY(16)
+    private static final int LEGACY_BYTES = 16;
+
+    private static final PasswordHasher INSTANCE = new PasswordHasher(
+            Config.get("PasswordAlgorithm", "PBKDF2WithHmacSHA256"),
+            Config.getInt("PasswordIterations", 100_000),
+            Config.getInt("PasswordKeyBytes", 32));
+
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> factories = ThreadLocal.withInitial(HashMap::new);
+
+    private final int algorithm;
+    private final int iterations;
+    private final int keyBytes;
+    private final ThreadPoolExecutor workers;
+
+    public PasswordHasher(String algorithm, int iterations, int keyBytes) {
+        this.algorithm = algorithmId(algorithm);
+        this.iterations = iterations;
+        this.keyBytes = keyBytes;
+        if (iterations < 1 || keyBytes < 16 || keyBytes > 64) {
+            throw new IllegalArgumentException("Invalid password hash settings");
+        }
+        int threads = Config.getInt("PasswordHashThreads", Runtime.getRuntime().availableProcessors());
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Config.getInt("PasswordHashQueue", 1000)),
+                ThreadPools.daemonThreads("password-hash"));
+    }
+
+    public static PasswordHasher getInstance() {
+        return INSTANCE;
+    }
+
+    // A new hash of the password with the current settings
+    public byte[] hash(String password, byte[] salt) {
+        return onWorker(() -> hashNow(password, salt));
+    }
+
+    public boolean verify(String password, byte[] salt, byte[] stored) {
+        return onWorker(() -> verifyNow(password, salt, stored));
+    }
+
+    // true if the stored hash was made with other settings than the current ones
+    public boolean needsRehash(byte[] stored) {
+        if (isLegacy(stored)) {
+            return true;
+        }
+        ByteBuffer header = ByteBuffer.wrap(stored);
+        header.get();
+        return header.get() != algorithm || header.getInt() != iterations
+                || stored.length - HEADER_BYTES != keyBytes;
+    }
+
+    // on the calling thread, for benchmarks
+    public byte[] hashNow(String password, byte[] salt) {
+        byte[] key = derive(ALGORITHMS[algorithm], password, salt, iterations, keyBytes * 8);
+        return ByteBuffer.allocate(HEADER_BYTES + key.length)
+                .put(FORMAT)
+                .put((byte) algorithm)
+                .putInt(iterations)
+                .put(key)
+                .array();
+    }
+
+    public boolean verifyNow(String password, byte[] salt, byte[] stored) {
+        if (isLegacy(stored)) {
+            // the old column padded the two hash bytes with zeros
+            return MessageDigest.isEqual(Util.trim(stored), Util.trim(Util.generateHash(password, salt)));
+        }
+        ByteBuffer header = ByteBuffer.wrap(stored);
+        header.get();
+        int storedAlgorithm = header.get();
+        int storedIterations = header.getInt();
+        if (storedAlgorithm <= 0 || storedAlgorithm >= ALGORITHMS.length || storedIterations < 1) {
+            return false;
+        }
+        byte[] expected = new byte[stored.length - HEADER_BYTES];
+        header.get(expected);
+        byte[] actual = derive(ALGORITHMS[storedAlgorithm], password, salt, storedIterations, expected.length * 8);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    static byte[] derive(String algorithm, String password, byte[] salt, int iterations, int keyBits) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyBits);
+        try {
+            SecretKeyFactory factory = factories.get().get(algorithm);
+            if (factory == null) {
+                factory = SecretKeyFactory.getInstance(algorithm);
+                factories.get().put(algorithm, factory);
+            }
+            return factory.generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot hash passwords with " + algorithm, e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static boolean isLegacy(byte[] stored) {
+        return stored.length <= LEGACY_BYTES || stored[0] != FORMAT;
+    }
+
+    private static int algorithmId(String name) {
+        for (int i = 1; i < ALGORITHMS.length; i++) {
+            if (ALGORITHMS[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported password algorithm: " + name);
+    }
+
+    private <T> T onWorker(Callable<T> task) {
+        Future<T> result;
+        try {
+            result = workers.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("Too many password checks at once, please try again!", e);
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing a password", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package scheduler.util;
+
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+// Expands a date range and a recurrence rule into the list of matching dates.
+// Rules: daily, weekdays, weekends, or a comma separated list of days (mon,wed,fri)
+public class Recurrence {
+    public static final int MAX_DAYS = Config.getInt("MaxUploadDays", 732);
+
+    public static List<Date> expand(Date start, Date end, String rule) {
+        LocalDate first = start.toLocalDate();
+        LocalDate last = end.toLocalDate();
+        if (last.isBefore(first)) {
+            throw new IllegalArgumentException("End date is before start date!");
+        }
+        if (first.plusDays(MAX_DAYS).isBefore(last)) {
+            throw new IllegalArgumentException("Date range cannot be longer than " + MAX_DAYS + " days!");
+        }
+        Set<DayOfWeek> days = parseRule(rule);
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+            if (days.contains(day.getDayOfWeek())) {
+                dates.add(Date.valueOf(day));
+            }
+        }
+        return dates;
+    }
+
+    private static Set<DayOfWeek> parseRule(String rule) {
+        switch (rule.toLowerCase()) {
+            case "daily":
+                return EnumSet.allOf(DayOfWeek.class);
+            case "weekdays":
+                return EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY);
+            case "weekends":
+                return EnumSet.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY);
+            default:
+                break;
+        }
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : rule.toLowerCase().split(",")) {
+            days.add(parseDay(name.trim()));
+        }
+        return days;
+    }
+
+    private static DayOfWeek parseDay(String name) {
+        for (DayOfWeek day : DayOfWeek.values()) {
+            String full = day.name().toLowerCase();
+            if (name.length() >= 3 && full.startsWith(name)) {
+                return day;
+            }
+        }
+        throw new IllegalArgumentException("Unknown recurrence rule: " + name);
+    }
+}
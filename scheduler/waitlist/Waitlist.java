@@ -0,0 +1,603 @@
+package scheduler.waitlist;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Dialect;
+import scheduler.db.UnitOfWork;
+import scheduler.events.Event;
+import scheduler.events.EventLog;
+import scheduler.inventory.CaregiverLoad;
+import scheduler.inventory.DoseInventory;
+import scheduler.inventory.SlotIndex;
+import scheduler.model.Vaccine;
+import scheduler.util.Config;
+import scheduler.util.ThreadPools;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Patients waiting for an appointment, and the matcher that books them once slots or doses
+// appear, so that nobody has to retry reserve during a shortage (Waitlist=false turns it off).
+//
+// Entries are kept in the Waitlist table and in a priority queue ordered by priority group, then
+// request time. notifyCapacity(), called after uploads, add_doses and cancellations, starts a
+// matching run on a background thread; a run also happens every WaitlistMatchSeconds (60) after
+// reloading the queue from the table, which picks up entries and capacity from other processes.
+//
+// A run walks the queue in order and books up to WaitlistBatchSize (100) patients per
+// transaction. Each patient gets a savepoint: the waitlist row is removed, the earliest free slot
+// of their window claimed and a dose taken, and a patient who cannot be served is rolled back to
+// the savepoint without touching the rest of the batch. Dates without free slots and vaccines
+// that ran out are skipped for the rest of the run. A patient may wait for a vaccine that is not in
+// the Vaccines table yet; their entry stays queued, and is skipped, until it is added.
+public class Waitlist {
+    private static final int BATCH_SIZE = Config.getInt("WaitlistBatchSize", 100);
+    // candidate slots read per patient on databases without UPDATE ... OUTPUT
+    private static final int CANDIDATES = 10;
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt(Entry::getPriorityGroup)
+            .thenComparing(Entry::getRequestedAt)
+            .thenComparing(entry -> key(entry.patientName));
+
+    private static final String claimSlot =
+            "WITH slot AS (" +
+            "SELECT TOP (1) ID, CaregiverName, Time, PatientName, VaccineName " +
+            "FROM Availabilities WITH (UPDLOCK, READPAST, ROWLOCK) " +
+            "WHERE Time BETWEEN ? AND ? AND PatientName IS NULL ORDER BY Time, ID) " +
+            "UPDATE slot SET PatientName = ?, VaccineName = ? OUTPUT inserted.ID, inserted.CaregiverName, inserted.Time";
+
+    // guarded by this
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(ORDER);
+    private final Map<String, Entry> byPatient = new HashMap<>();
+
+    private final ScheduledExecutorService matcher =
+            Executors.newSingleThreadScheduledExecutor(ThreadPools.daemonThreads("waitlist-matcher"));
+    private final AtomicBoolean matchPending = new AtomicBoolean();
+
+    private Waitlist() throws SQLException {
+        reload();
+        long period = Config.getLong("WaitlistMatchSeconds", 60);
+        matcher.scheduleWithFixedDelay(this::reloadAndMatch, period, period, TimeUnit.SECONDS);
+    }
+
+    public static boolean isEnabled() {
+        return Config.getBoolean("Waitlist", true);
+    }
+
+    public static Waitlist getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // Puts the patient on the waitlist, false if they are on it already
+    public synchronized boolean join(String patientName, String vaccineName, Date from, Date to) throws SQLException {
+        if (byPatient.containsKey(key(patientName))) {
+            return false;
+        }
+        Entry entry = new Entry(patientName, vaccineName, from.toLocalDate(), to.toLocalDate(), 0,
+                new Timestamp(System.currentTimeMillis()));
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addEntry = "INSERT INTO Waitlist (PatientName, VaccineName, FromTime, ToTime, PriorityGroup, RequestedAt) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+        try {
+            PreparedStatement statement = con.prepareStatement(addEntry);
+            statement.setString(1, entry.patientName);
+            statement.setString(2, entry.vaccineName);
+            statement.setDate(3, from);
+            statement.setDate(4, to);
+            statement.setInt(5, entry.priorityGroup);
+            statement.setTimestamp(6, entry.requestedAt);
+            statement.executeUpdate();
+            add(entry);
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+        // there may be room already, e.g. a slot that was freed while reserve was failing
+        notifyCapacity();
+        return true;
+    }
+
+    // Takes the patient off the waitlist, false if they were not on it
+    public synchronized boolean leave(String patientName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String removeEntry = "DELETE FROM Waitlist WHERE PatientName = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(removeEntry);
+            statement.setString(1, patientName);
+            boolean removed = statement.executeUpdate() > 0;
+            remove(patientName);
+            return removed;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Moves the patient to another priority group (lower is served first), false if not waiting
+    public synchronized boolean setPriorityGroup(String patientName, int priorityGroup) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String setPriority = "UPDATE Waitlist SET PriorityGroup = ? WHERE PatientName = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(setPriority);
+            statement.setInt(1, priorityGroup);
+            statement.setString(2, patientName);
+            if (statement.executeUpdate() == 0) {
+                remove(patientName);
+                return false;
+            }
+            Entry entry = remove(patientName);
+            if (entry != null) {
+                add(new Entry(entry.patientName, entry.vaccineName, entry.from, entry.to, priorityGroup, entry.requestedAt));
+            }
+            notifyCapacity();
+            return true;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public synchronized Entry get(String patientName) {
+        return byPatient.get(key(patientName));
+    }
+
+    // 1 for the patient served next, 0 if not waiting
+    public synchronized int getPosition(String patientName) {
+        Entry entry = byPatient.get(key(patientName));
+        if (entry == null) {
+            return 0;
+        }
+        int position = 1;
+        for (Entry other : queue) {
+            if (ORDER.compare(other, entry) < 0) {
+                position++;
+            }
+        }
+        return position;
+    }
+
+    // the first entries in the order they are served
+    public synchronized List<Entry> peek(int max) {
+        List<Entry> ordered = new ArrayList<>(queue);
+        ordered.sort(ORDER);
+        return ordered.subList(0, Math.min(max, ordered.size()));
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    // Slots or doses may have appeared: runs the matcher soon, runs requested meanwhile are merged
+    public void notifyCapacity() {
+        if (matchPending.compareAndSet(false, true)) {
+            matcher.execute(this::matchQuietly);
+        }
+    }
+
+    // Books as many waiting patients as the free slots and doses allow, returns how many
+    public int match() throws SQLException {
+        List<Entry> ordered;
+        synchronized (this) {
+            if (queue.isEmpty()) {
+                return 0;
+            }
+            ordered = new ArrayList<>(queue);
+        }
+        ordered.sort(ORDER);
+        LocalDate today = LocalDate.now();
+        LocalDate first = null;
+        LocalDate last = null;
+        for (Entry entry : ordered) {
+            first = first == null || entry.from.isBefore(first) ? entry.from : first;
+            last = last == null || entry.to.isAfter(last) ? entry.to : last;
+        }
+        if (first.isBefore(today)) {
+            first = today;
+        }
+        NavigableMap<LocalDate, Integer> freeSlots = last.isBefore(first) ? new TreeMap<>() : countFreeSlots(first, last);
+        Set<String> outOfDoses = new HashSet<>();
+
+        int booked = 0;
+        int next = 0;
+        while (next < ordered.size()) {
+            List<Assignment> assigned = new ArrayList<>();
+            List<Entry> expired = new ArrayList<>();
+            try (UnitOfWork work = UnitOfWork.begin()) {
+                Connection con = work.getConnection();
+                while (next < ordered.size() && assigned.size() < BATCH_SIZE) {
+                    Entry entry = ordered.get(next++);
+                    if (entry.to.isBefore(today)) {
+                        expired.add(entry);
+                        continue;
+                    }
+                    LocalDate from = entry.from.isBefore(today) ? today : entry.from;
+                    if (outOfDoses.contains(key(entry.vaccineName)) || !hasFreeSlot(freeSlots, from, entry.to)) {
+                        continue;
+                    }
+                    Assignment assignment = assign(con, entry, from);
+                    if (assignment.outcome == Outcome.BOOKED) {
+                        assigned.add(assignment);
+                        freeSlots.computeIfPresent(assignment.date.toLocalDate(), (d, n) -> n > 1 ? n - 1 : null);
+                    } else if (assignment.outcome == Outcome.NO_DOSES || assignment.outcome == Outcome.UNKNOWN_VACCINE) {
+                        outOfDoses.add(key(entry.vaccineName));
+                    } else if (assignment.outcome == Outcome.NO_SLOT) {
+                        // the counts were stale, nothing is free in this window
+                        freeSlots.subMap(from, true, entry.to, true).clear();
+                    }
+                }
+                removeExpired(con, expired, today);
+                work.commit();
+            } catch (SQLException e) {
+                releaseDoses(assigned);
+                throw e;
+            }
+            synchronized (this) {
+                for (Assignment assignment : assigned) {
+                    remove(assignment.entry.patientName);
+                }
+                for (Entry entry : expired) {
+                    remove(entry.patientName);
+                }
+            }
+            for (Assignment assignment : assigned) {
+                booked(assignment);
+            }
+            booked += assigned.size();
+        }
+        if (booked > 0) {
+            System.out.printf("Waitlist: booked %d patient(s), %d still waiting\n", booked, size());
+        }
+        return booked;
+    }
+
+    // One patient, under a savepoint of the batch transaction
+    static Assignment assign(Connection con, Entry entry, LocalDate from) throws SQLException {
+        boolean fromInventory = DoseInventory.isEnabled();
+        Savepoint savepoint = con.setSavepoint();
+        Assignment assignment = new Assignment(entry, fromInventory);
+        try {
+            // someone else (leave, another node's matcher) may have taken the entry
+            PreparedStatement statement_1 = con.prepareStatement("DELETE FROM Waitlist WHERE PatientName = ?");
+            statement_1.setString(1, entry.patientName);
+            if (statement_1.executeUpdate() == 0) {
+                assignment.outcome = Outcome.GONE;
+            } else if (!vaccineExists(con, entry.vaccineName)) {
+                // the claim would break the VaccineName foreign key of Availabilities
+                assignment.outcome = Outcome.UNKNOWN_VACCINE;
+            } else if (!claimSlot(con, assignment, Date.valueOf(from), Date.valueOf(entry.to))) {
+                assignment.outcome = Outcome.NO_SLOT;
+            } else if (!takeDose(con, assignment)) {
+                assignment.outcome = Outcome.NO_DOSES;
+            } else {
+                assignment.outcome = Outcome.BOOKED;
+            }
+        } catch (SQLException e) {
+            // with XACT_ABORT the server may have rolled back the whole transaction already
+            try {
+                con.rollback(savepoint);
+            } catch (SQLException rollbackFailure) {
+                e.addSuppressed(rollbackFailure);
+            }
+            throw e;
+        }
+        if (assignment.outcome != Outcome.BOOKED) {
+            con.rollback(savepoint);
+        }
+        return assignment;
+    }
+
+    private static boolean vaccineExists(Connection con, String vaccineName) throws SQLException {
+        PreparedStatement statement = con.prepareStatement("SELECT 1 FROM Vaccines WHERE Name = ?");
+        statement.setString(1, vaccineName);
+        return statement.executeQuery().next();
+    }
+
+    // earliest free slot of the window, on SQL Server with one UPDATE that skips locked rows
+    private static boolean claimSlot(Connection con, Assignment assignment, Date from, Date to) throws SQLException {
+        Entry entry = assignment.entry;
+        if (ConnectionManager.getDialect() == Dialect.SQL_SERVER) {
+            PreparedStatement statement = con.prepareStatement(claimSlot);
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            statement.setString(3, entry.patientName);
+            statement.setString(4, entry.vaccineName);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return false;
+            }
+            assignment.slot(resultSet.getLong("ID"), resultSet.getString("CaregiverName"), resultSet.getDate("Time"));
+            return true;
+        }
+
+        String findSlots = "SELECT ID, CaregiverName, Time FROM Availabilities " +
+                "WHERE Time BETWEEN ? AND ? AND PatientName IS NULL ORDER BY Time, ID " +
+                "OFFSET 0 ROWS FETCH NEXT " + CANDIDATES + " ROWS ONLY";
+        String bookSlot = "UPDATE Availabilities SET PatientName = ?, VaccineName = ? WHERE ID = ? AND PatientName IS NULL";
+        PreparedStatement statement_1 = con.prepareStatement(findSlots);
+        statement_1.setDate(1, from);
+        statement_1.setDate(2, to);
+        ResultSet resultSet = statement_1.executeQuery();
+        PreparedStatement statement_2 = con.prepareStatement(bookSlot);
+        while (resultSet.next()) {
+            statement_2.setString(1, entry.patientName);
+            statement_2.setString(2, entry.vaccineName);
+            statement_2.setLong(3, resultSet.getLong("ID"));
+            if (statement_2.executeUpdate() > 0) {
+                assignment.slot(resultSet.getLong("ID"), resultSet.getString("CaregiverName"), resultSet.getDate("Time"));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean takeDose(Connection con, Assignment assignment) throws SQLException {
+        String vaccineName = assignment.entry.vaccineName;
+        if (assignment.fromInventory) {
+            return DoseInventory.getInstance().tryTake(vaccineName, 1);
+        }
+        PreparedStatement statement = con.prepareStatement(
+                "UPDATE Vaccines SET Doses = Doses - 1, Version = Version + 1 WHERE Name = ? AND Doses > 0");
+        statement.setString(1, vaccineName);
+        return statement.executeUpdate() > 0;
+    }
+
+    private void removeExpired(Connection con, List<Entry> expired, LocalDate today) throws SQLException {
+        if (expired.isEmpty()) {
+            return;
+        }
+        PreparedStatement statement = con.prepareStatement("DELETE FROM Waitlist WHERE PatientName = ? AND ToTime < ?");
+        for (Entry entry : expired) {
+            statement.setString(1, entry.patientName);
+            statement.setDate(2, Date.valueOf(today));
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    // doses taken from the in-memory inventory for a batch that did not commit
+    private void releaseDoses(List<Assignment> assigned) {
+        for (Assignment assignment : assigned) {
+            if (assignment.fromInventory) {
+                DoseInventory.getInstance().release(assignment.entry.vaccineName, 1);
+            }
+        }
+    }
+
+    // what a committed booking changes outside the database
+    private void booked(Assignment assignment) {
+        Entry entry = assignment.entry;
+        if (SlotIndex.isEnabled()) {
+            SlotIndex.getInstance().remove(assignment.date, assignment.slotID);
+        }
+        CaregiverLoad.getInstance().booked(assignment.date.toLocalDate(), assignment.caregiverName);
+        EventLog.record(Event.slot(Event.Type.SLOT_BOOKED, assignment.slotID, assignment.date,
+                assignment.caregiverName, entry.patientName, entry.vaccineName));
+        if (!assignment.fromInventory) {
+            Vaccine.invalidate(entry.vaccineName);
+            EventLog.record(Event.doses(entry.vaccineName, -1));
+        }
+    }
+
+    private NavigableMap<LocalDate, Integer> countFreeSlots(LocalDate first, LocalDate last) throws SQLException {
+        NavigableMap<LocalDate, Integer> counts = new TreeMap<>();
+        if (SlotIndex.isEnabled()) {
+            for (Map.Entry<LocalDate, Queue<SlotIndex.Slot>> day :
+                    SlotIndex.getInstance().range(Date.valueOf(first), Date.valueOf(last)).entrySet()) {
+                if (!day.getValue().isEmpty()) {
+                    counts.put(day.getKey(), day.getValue().size());
+                }
+            }
+            return counts;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String countFree = "SELECT Time, COUNT(*) AS Free FROM Availabilities " +
+                "WHERE Time BETWEEN ? AND ? AND PatientName IS NULL GROUP BY Time";
+        try {
+            PreparedStatement statement = con.prepareStatement(countFree);
+            statement.setDate(1, Date.valueOf(first));
+            statement.setDate(2, Date.valueOf(last));
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                counts.put(resultSet.getDate("Time").toLocalDate(), resultSet.getInt("Free"));
+            }
+            return counts;
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static boolean hasFreeSlot(NavigableMap<LocalDate, Integer> freeSlots, LocalDate from, LocalDate to) {
+        return !from.isAfter(to) && !freeSlots.subMap(from, true, to, true).isEmpty();
+    }
+
+    private void matchQuietly() {
+        matchPending.set(false);
+        try {
+            match();
+        } catch (SQLException | RuntimeException e) {
+            // the entries stay on the waitlist, the next run tries again
+            System.out.println("Error occurred when matching the waitlist");
+            e.printStackTrace();
+        }
+    }
+
+    private void reloadAndMatch() {
+        try {
+            reload();
+        } catch (SQLException e) {
+            System.out.println("Could not reload the waitlist: " + e.getMessage());
+        }
+        matchQuietly();
+    }
+
+    // replaces the queue with the table, under the lock so that no join() gets lost in between
+    private synchronized void reload() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getEntries = "SELECT PatientName, VaccineName, FromTime, ToTime, PriorityGroup, RequestedAt FROM Waitlist";
+        try {
+            PreparedStatement statement = con.prepareStatement(getEntries);
+            ResultSet resultSet = statement.executeQuery();
+            queue.clear();
+            byPatient.clear();
+            while (resultSet.next()) {
+                add(new Entry(resultSet.getString("PatientName"), resultSet.getString("VaccineName"),
+                        resultSet.getDate("FromTime").toLocalDate(), resultSet.getDate("ToTime").toLocalDate(),
+                        resultSet.getInt("PriorityGroup"), resultSet.getTimestamp("RequestedAt")));
+            }
+        } catch (SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // callers hold the lock
+    private void add(Entry entry) {
+        Entry previous = byPatient.put(key(entry.patientName), entry);
+        if (previous != null) {
+            queue.remove(previous);
+        }
+        queue.add(entry);
+    }
+
+    private Entry remove(String patientName) {
+        Entry entry = byPatient.remove(key(patientName));
+        if (entry != null) {
+            queue.remove(entry);
+        }
+        return entry;
+    }
+
+    // usernames compare case-insensitively in the database
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    enum Outcome {
+        BOOKED,
+        // the entry left the waitlist in the meantime
+        GONE,
+        NO_SLOT,
+        NO_DOSES,
+        // not in the Vaccines table (yet)
+        UNKNOWN_VACCINE
+    }
+
+    static class Assignment {
+        private final Entry entry;
+        private final boolean fromInventory;
+        private Outcome outcome;
+        private long slotID;
+        private String caregiverName;
+        private Date date;
+
+        Assignment(Entry entry, boolean fromInventory) {
+            this.entry = entry;
+            this.fromInventory = fromInventory;
+        }
+
+        void slot(long slotID, String caregiverName, Date date) {
+            this.slotID = slotID;
+            this.caregiverName = caregiverName;
+            this.date = date;
+        }
+
+        Outcome getOutcome() {
+            return outcome;
+        }
+
+        long getSlotID() {
+            return slotID;
+        }
+    }
+
+    public static class Entry {
+        private final String patientName;
+        private final String vaccineName;
+        private final LocalDate from;
+        private final LocalDate to;
+        private final int priorityGroup;
+        private final Timestamp requestedAt;
+
+        Entry(String patientName, String vaccineName, LocalDate from, LocalDate to, int priorityGroup, Timestamp requestedAt) {
+            this.patientName = patientName;
+            this.vaccineName = vaccineName;
+            this.from = from;
+            this.to = to;
+            this.priorityGroup = priorityGroup;
+            this.requestedAt = requestedAt;
+        }
+
+        // Getters
+        public String getPatientName() {
+            return patientName;
+        }
+
+        public String getVaccineName() {
+            return vaccineName;
+        }
+
+        public LocalDate getFrom() {
+            return from;
+        }
+
+        public LocalDate getTo() {
+            return to;
+        }
+
+        public int getPriorityGroup() {
+            return priorityGroup;
+        }
+
+        public Timestamp getRequestedAt() {
+            return requestedAt;
+        }
+    }
+
+    private static class Holder {
+        private static final Waitlist INSTANCE = create();
+
+        private static Waitlist create() {
+            try {
+                return new Waitlist();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not load waitlist", e);
+            }
+        }
+    }
+}
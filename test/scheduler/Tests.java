@@ -0,0 +1,66 @@
+package scheduler;
+
+import java.util.Objects;
+
+// A small runner for the tests under test/, which only need the JDK:
+//
+//     javac -d out $(find scheduler test -name '*.java')
+//     java -cp out scheduler.db.ConnectionPoolTest
+//
+// Every test class has a main() that runs its cases and exits with 1 if any of them failed.
+public class Tests {
+    private final String suite;
+    private int passed = 0;
+    private int failed = 0;
+
+    public Tests(String suite) {
+        this.suite = suite;
+    }
+
+    public interface Case {
+        void run() throws Exception;
+    }
+
+    public void run(String name, Case test) {
+        try {
+            test.run();
+            passed++;
+            System.out.println("ok    " + suite + "." + name);
+        } catch (Throwable e) {
+            failed++;
+            System.out.println("FAIL  " + suite + "." + name + ": " + e);
+            e.printStackTrace(System.out);
+        }
+    }
+
+    // prints the totals and exits with 1 if a case failed
+    public void finish() {
+        System.out.printf("%s: %d passed, %d failed\n", suite, passed, failed);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    public static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    public static void checkEquals(Object expected, Object actual, String what) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    // runs the action and returns what it threw, fails if it threw nothing or something else
+    public static <T extends Throwable> T expect(Class<T> type, Case action) {
+        try {
+            action.run();
+        } catch (Throwable e) {
+            if (type.isInstance(e)) {
+                return type.cast(e);
+            }
+            throw new AssertionError("expected " + type.getSimpleName() + " but got " + e, e);
+        }
+        throw new AssertionError("expected " + type.getSimpleName() + " but nothing was thrown");
+    }
+}
@@ -0,0 +1,110 @@
+package scheduler.db;
+
+import scheduler.Tests;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+
+import static scheduler.Tests.check;
+import static scheduler.Tests.checkEquals;
+import static scheduler.Tests.expect;
+
+public class ConnectionPoolTest {
+    public static void main(String[] args) {
+        Tests tests = new Tests("ConnectionPoolTest");
+        tests.run("acquireTimesOutWhenPoolIsExhausted", ConnectionPoolTest::acquireTimesOutWhenPoolIsExhausted);
+        tests.run("closedConnectionIsReused", ConnectionPoolTest::closedConnectionIsReused);
+        tests.run("closingTwiceReturnsOnce", ConnectionPoolTest::closingTwiceReturnsOnce);
+        tests.run("openTransactionIsRolledBackOnReturn", ConnectionPoolTest::openTransactionIsRolledBackOnReturn);
+        tests.run("closedPoolRefusesBorrowers", ConnectionPoolTest::closedPoolRefusesBorrowers);
+        tests.finish();
+    }
+
+    private static ConnectionPool pool(FakeBackend backend, int maxSize) {
+        return new ConnectionPool.Builder(backend)
+                .maxSize(maxSize)
+                .minIdle(0)
+                .acquireTimeoutMillis(100)
+                .build();
+    }
+
+    static void acquireTimesOutWhenPoolIsExhausted() throws Exception {
+        ConnectionPool pool = pool(new FakeBackend(), 1);
+        try {
+            Connection first = pool.borrow();
+            long start = System.nanoTime();
+            expect(SQLTimeoutException.class, pool::borrow);
+            check(System.nanoTime() - start >= 90_000_000L, "gave up before the acquire timeout");
+            checkEquals(1L, pool.getTimeoutCount(), "timeouts");
+
+            first.close();
+            pool.borrow().close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    static void closedConnectionIsReused() throws Exception {
+        FakeBackend backend = new FakeBackend();
+        ConnectionPool pool = pool(backend, 2);
+        try {
+            Connection first = pool.borrow();
+            first.close();
+            check(first.isClosed(), "a returned connection reports closed");
+            expect(SQLException.class, () -> first.setAutoCommit(false));
+
+            pool.borrow().close();
+            checkEquals(1, backend.opened.size(), "physical connections opened");
+            check(!backend.opened.get(0).closed, "the physical connection stays open");
+            checkEquals(0, pool.getActiveConnections(), "active connections");
+            checkEquals(1, pool.getIdleConnections(), "idle connections");
+        } finally {
+            pool.close();
+        }
+    }
+
+    static void closingTwiceReturnsOnce() throws Exception {
+        ConnectionPool pool = pool(new FakeBackend(), 1);
+        try {
+            Connection con = pool.borrow();
+            con.close();
+            con.close();
+            // a second permit would let both of these through
+            Connection held = pool.borrow();
+            expect(SQLTimeoutException.class, pool::borrow);
+            held.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    static void openTransactionIsRolledBackOnReturn() throws Exception {
+        FakeBackend backend = new FakeBackend();
+        ConnectionPool pool = pool(backend, 1);
+        try {
+            Connection con = pool.borrow();
+            con.setAutoCommit(false);
+            con.close();
+            FakeBackend.FakeConnection physical = backend.opened.get(0);
+            checkEquals(1, physical.rollbacks, "rollbacks on return");
+            check(physical.autoCommit, "autocommit is back on");
+
+            Connection next = pool.borrow();
+            check(next.getAutoCommit(), "the next borrower starts in autocommit");
+            next.close();
+            checkEquals(1, physical.rollbacks, "rollbacks after an autocommit borrow");
+        } finally {
+            pool.close();
+        }
+    }
+
+    static void closedPoolRefusesBorrowers() throws Exception {
+        FakeBackend backend = new FakeBackend();
+        ConnectionPool pool = pool(backend, 1);
+        pool.borrow().close();
+        pool.close();
+        check(backend.opened.get(0).closed, "idle connections are closed with the pool");
+        expect(SQLException.class, pool::borrow);
+    }
+}
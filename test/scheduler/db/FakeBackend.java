@@ -0,0 +1,77 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// A backend whose connections only record the transaction calls made on them, for tests of the
+// pool and the unit of work that don't need a database.
+class FakeBackend implements Backend {
+    final List<FakeConnection> opened = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String getName() {
+        return "fake";
+    }
+
+    @Override
+    public Dialect getDialect() {
+        return Dialect.H2;
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public Connection openConnection() {
+        FakeConnection fake = new FakeConnection();
+        opened.add(fake);
+        return fake.connection;
+    }
+
+    static class FakeConnection implements InvocationHandler {
+        final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, this);
+        volatile boolean autoCommit = true;
+        volatile boolean closed = false;
+        volatile int commits = 0;
+        volatile int rollbacks = 0;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+            switch (method.getName()) {
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "commit":
+                    commits++;
+                    return null;
+                case "rollback":
+                    rollbacks++;
+                    return null;
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "isValid":
+                    return !closed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "FakeConnection";
+                default:
+                    throw new SQLException("Not supported by the fake connection: " + method.getName());
+            }
+        }
+    }
+}
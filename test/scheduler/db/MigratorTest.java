@@ -0,0 +1,157 @@
+package scheduler.db;
+
+import scheduler.Tests;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static scheduler.Tests.check;
+import static scheduler.Tests.checkEquals;
+import static scheduler.Tests.expect;
+
+public class MigratorTest {
+    public static void main(String[] args) {
+        Tests tests = new Tests("MigratorTest");
+        tests.run("changedMigrationStopsTheMigration", MigratorTest::changedMigrationStopsTheMigration);
+        tests.run("unchangedMigrationIsNotRunAgain", MigratorTest::unchangedMigrationIsNotRunAgain);
+        tests.finish();
+    }
+
+    static void changedMigrationStopsTheMigration() throws Exception {
+        Path dir = migrations();
+        try {
+            Migrator migrator = new Migrator(dir.toString(), Dialect.H2);
+            long checksum = migrator.findMigrations().get(0).getChecksum();
+            FakeDatabase db = new FakeDatabase(Map.of(1, checksum + 1));
+            SQLException e = expect(SQLException.class, () -> migrator.migrate(db.connection));
+            check(e.getMessage().contains("V1__create_tables.sql was changed after it was applied"),
+                    "unexpected message: " + e.getMessage());
+            checkEquals(List.of(), db.executed, "statements run");
+            check(db.autoCommit, "autocommit is back on");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    static void unchangedMigrationIsNotRunAgain() throws Exception {
+        Path dir = migrations();
+        try {
+            Migrator migrator = new Migrator(dir.toString(), Dialect.H2);
+            long checksum = migrator.findMigrations().get(0).getChecksum();
+            FakeDatabase db = new FakeDatabase(Map.of(1, checksum));
+            checkEquals(0, migrator.migrate(db.connection), "migrations run");
+            checkEquals(List.of(), db.executed, "statements run");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static Path migrations() throws IOException {
+        Path dir = Files.createTempDirectory("migrations");
+        Files.writeString(dir.resolve("V1__create_tables.sql"), "CREATE TABLE Vaccines (\n    Name varchar(255)\n);\n");
+        return dir;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // Answers the statements Migrator sends on H2 for a database whose SchemaMigrations table
+    // already lists the given versions and checksums. Anything that would change the schema is
+    // recorded instead of run.
+    private static class FakeDatabase {
+        final Connection connection;
+        final Map<Integer, Long> applied;
+        final List<String> executed = new ArrayList<>();
+        boolean autoCommit = true;
+
+        FakeDatabase(Map<Integer, Long> applied) {
+            this.applied = new TreeMap<>(applied);
+            this.connection = proxy(Connection.class, (method, args) -> switch (method) {
+                case "getAutoCommit" -> autoCommit;
+                case "setAutoCommit" -> {
+                    autoCommit = (Boolean) args[0];
+                    yield null;
+                }
+                case "commit", "rollback" -> null;
+                case "prepareStatement" -> prepared((String) args[0]);
+                case "createStatement" -> statement();
+                default -> throw new SQLException("Not supported: " + method);
+            });
+        }
+
+        private PreparedStatement prepared(String sql) {
+            return proxy(PreparedStatement.class, (method, args) -> switch (method) {
+                case "setString", "setInt", "setLong" -> null;
+                case "executeQuery" -> {
+                    if (!sql.startsWith("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES")) {
+                        throw new SQLException("Unexpected query: " + sql);
+                    }
+                    yield resultSet(List.<Object[]>of(new Object[]{1}));
+                }
+                case "executeUpdate" -> {
+                    executed.add(sql);
+                    yield 1;
+                }
+                case "close" -> null;
+                default -> throw new SQLException("Not supported: " + method);
+            });
+        }
+
+        private Statement statement() {
+            return proxy(Statement.class, (method, args) -> switch (method) {
+                case "executeQuery" -> {
+                    if (!args[0].equals("SELECT Version, Checksum FROM SchemaMigrations")) {
+                        throw new SQLException("Unexpected query: " + args[0]);
+                    }
+                    List<Object[]> rows = new ArrayList<>();
+                    applied.forEach((version, checksum) -> rows.add(new Object[]{version, checksum}));
+                    yield resultSet(rows);
+                }
+                case "execute", "executeUpdate" -> {
+                    executed.add((String) args[0]);
+                    yield method.equals("execute") ? false : 0;
+                }
+                case "close" -> null;
+                default -> throw new SQLException("Not supported: " + method);
+            });
+        }
+
+        private static ResultSet resultSet(List<Object[]> rows) {
+            int[] row = {-1};
+            return proxy(ResultSet.class, (method, args) -> switch (method) {
+                case "next" -> ++row[0] < rows.size();
+                case "getInt" -> ((Number) rows.get(row[0])[(Integer) args[0] - 1]).intValue();
+                case "getLong" -> ((Number) rows.get(row[0])[(Integer) args[0] - 1]).longValue();
+                case "close" -> null;
+                default -> throw new SQLException("Not supported: " + method);
+            });
+        }
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args) throws SQLException;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.handle(method.getName(), args)));
+    }
+}
@@ -0,0 +1,141 @@
+package scheduler.db;
+
+import scheduler.Tests;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static scheduler.Tests.check;
+import static scheduler.Tests.checkEquals;
+import static scheduler.Tests.expect;
+
+public class UnitOfWorkTest {
+    public static void main(String[] args) {
+        Tests tests = new Tests("UnitOfWorkTest");
+        tests.run("modelConnectionsJoinTheUnit", UnitOfWorkTest::modelConnectionsJoinTheUnit);
+        tests.run("participantLeavesTransactionControlToTheUnit", UnitOfWorkTest::participantLeavesTransactionControlToTheUnit);
+        tests.run("closingWithoutCommitRollsBack", UnitOfWorkTest::closingWithoutCommitRollsBack);
+        tests.run("uncommittedInnerUnitMakesOuterRollbackOnly", UnitOfWorkTest::uncommittedInnerUnitMakesOuterRollbackOnly);
+        tests.run("participantRollbackMakesUnitRollbackOnly", UnitOfWorkTest::participantRollbackMakesUnitRollbackOnly);
+        tests.run("onlyTheOutermostUnitCommits", UnitOfWorkTest::onlyTheOutermostUnitCommits);
+        tests.run("afterCommitActionsRunInOrderAfterTheCommit", UnitOfWorkTest::afterCommitActionsRunInOrderAfterTheCommit);
+        tests.run("afterCommitActionsDontRunOnRollback", UnitOfWorkTest::afterCommitActionsDontRunOnRollback);
+        tests.run("runAfterCommitWithoutUnitRunsRightAway", UnitOfWorkTest::runAfterCommitWithoutUnitRunsRightAway);
+        tests.finish();
+    }
+
+    static void modelConnectionsJoinTheUnit() throws Exception {
+        FakeBackend.FakeConnection physical = new FakeBackend.FakeConnection();
+        try (UnitOfWork work = UnitOfWork.open(physical.connection)) {
+            check(UnitOfWork.current() == work, "the unit is open on this thread");
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+            check(con == work.getConnection(), "model classes get the unit's connection");
+            cm.closeConnection();
+            check(!con.isClosed(), "closeConnection() leaves the unit's connection open");
+            work.commit();
+        }
+        check(UnitOfWork.current() == null, "the unit is gone after close()");
+        check(physical.closed, "the connection is given back on close()");
+    }
+
+    static void participantLeavesTransactionControlToTheUnit() throws Exception {
+        FakeBackend.FakeConnection physical = new FakeBackend.FakeConnection();
+        try (UnitOfWork work = UnitOfWork.open(physical.connection)) {
+            Connection con = work.getConnection();
+            con.setAutoCommit(true);
+            con.commit();
+            con.close();
+            check(!physical.autoCommit, "setAutoCommit() on the participant is ignored");
+            check(!con.getAutoCommit(), "the participant reports a transaction");
+            checkEquals(0, physical.commits, "commits through the participant");
+            check(!physical.closed && !con.isClosed(), "close() on the participant is ignored");
+            work.commit();
+            checkEquals(1, physical.commits, "commits by the unit");
+        }
+        check(physical.autoCommit, "autocommit is back on after close()");
+    }
+
+    static void closingWithoutCommitRollsBack() throws Exception {
+        FakeBackend.FakeConnection physical = new FakeBackend.FakeConnection();
+        try (UnitOfWork ignored = UnitOfWork.open(physical.connection)) {
+            // no commit
+        }
+        checkEquals(0, physical.commits, "commits");
+        checkEquals(1, physical.rollbacks, "rollbacks");
+        check(physical.closed, "the connection is given back");
+    }
+
+    static void uncommittedInnerUnitMakesOuterRollbackOnly() throws Exception {
+        FakeBackend.FakeConnection physical = new FakeBackend.FakeConnection();
+        try (UnitOfWork outer = UnitOfWork.open(physical.connection)) {
+            try (UnitOfWork inner = UnitOfWork.begin()) {
+                check(inner.getConnection() == outer.getConnection(), "the inner unit joins the outer one");
+            }
+            expect(SQLException.class, outer::commit);
+        }
+        checkEquals(0, physical.commits, "commits");
+        checkEquals(1, physical.rollbacks, "rollbacks");
+    }
+
+    static void participantRollbackMakesUnitRollbackOnly() throws Exception {
+        FakeBackend.FakeConnection physical = new FakeBackend.FakeConnection();
+        try (UnitOfWork work = UnitOfWork.open(physical.connection)) {
+            Connection con = new ConnectionManager().createConnection();
+            con.rollback();
+            expect(SQLException.class, work::commit);
+        }
+        checkEquals(0, physical.commits, "commits");
+    }
+
+    static void onlyTheOutermostUnitCommits() throws Exception {
+        FakeBackend.FakeConnection physical = new FakeBackend.FakeConnection();
+        try (UnitOfWork outer = UnitOfWork.open(physical.connection)) {
+            try (UnitOfWork inner = UnitOfWork.begin()) {
+                inner.commit();
+            }
+            checkEquals(0, physical.commits, "commits after the inner commit");
+            outer.commit();
+            expect(SQLException.class, outer::commit);
+        }
+        checkEquals(1, physical.commits, "commits");
+        checkEquals(0, physical.rollbacks, "rollbacks");
+    }
+
+    static void afterCommitActionsRunInOrderAfterTheCommit() throws Exception {
+        FakeBackend.FakeConnection physical = new FakeBackend.FakeConnection();
+        List<String> ran = new ArrayList<>();
+        try (UnitOfWork outer = UnitOfWork.open(physical.connection)) {
+            UnitOfWork.runAfterCommit(() -> ran.add("first, commits=" + physical.commits));
+            try (UnitOfWork inner = UnitOfWork.begin()) {
+                UnitOfWork.runAfterCommit(() -> ran.add("inner, commits=" + physical.commits));
+                inner.commit();
+            }
+            outer.afterCommit(() -> ran.add("last, commits=" + physical.commits));
+            check(ran.isEmpty(), "actions wait for the commit");
+            outer.commit();
+        }
+        checkEquals(List.of("first, commits=1", "inner, commits=1", "last, commits=1"), ran, "actions run");
+    }
+
+    static void afterCommitActionsDontRunOnRollback() throws Exception {
+        FakeBackend.FakeConnection physical = new FakeBackend.FakeConnection();
+        List<String> ran = new ArrayList<>();
+        try (UnitOfWork outer = UnitOfWork.open(physical.connection)) {
+            UnitOfWork.runAfterCommit(() -> ran.add("outer"));
+            try (UnitOfWork inner = UnitOfWork.begin()) {
+                UnitOfWork.runAfterCommit(() -> ran.add("inner"));
+            }
+            expect(SQLException.class, outer::commit);
+        }
+        check(ran.isEmpty(), "no action ran after a rollback: " + ran);
+    }
+
+    static void runAfterCommitWithoutUnitRunsRightAway() {
+        List<String> ran = new ArrayList<>();
+        UnitOfWork.runAfterCommit(() -> ran.add("now"));
+        checkEquals(List.of("now"), ran, "actions run");
+    }
+}
@@ -0,0 +1,189 @@
+package scheduler.events;
+
+import scheduler.Tests;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static scheduler.Tests.check;
+import static scheduler.Tests.checkEquals;
+
+public class EventLogTest {
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    public static void main(String[] args) {
+        Tests tests = new Tests("EventLogTest");
+        tests.run("tornRecordIsDroppedOnOpen", EventLogTest::tornRecordIsDroppedOnOpen);
+        tests.run("tornHeaderIsDroppedOnOpen", EventLogTest::tornHeaderIsDroppedOnOpen);
+        tests.run("replayCrossesSegments", EventLogTest::replayCrossesSegments);
+        tests.run("appendingContinuesAfterRotation", EventLogTest::appendingContinuesAfterRotation);
+        tests.finish();
+    }
+
+    static void tornRecordIsDroppedOnOpen() throws Exception {
+        Path dir = Files.createTempDirectory("eventlog");
+        try {
+            append(dir, 10);
+            // a crash in the middle of the last record leaves a body that doesn't match its CRC
+            int last = lastRecordOffset(onlySegment(dir));
+            patch(onlySegment(dir), last + 8, (byte) 0x5A);
+
+            checkEquals(9L, EventLog.readLastSeq(dir), "last intact event");
+            try (EventLog log = new EventLog(dir, SEGMENT_BYTES, false, 0)) {
+                checkEquals(9L, log.getLastSeq(), "last event after recovery");
+                checkEquals(10L, log.append(Event.doses("after", 1)), "seq of the next event");
+            }
+            List<Event> events = readAll(dir, 0);
+            checkEquals(10, events.size(), "events");
+            checkSequential(events, 1);
+            checkEquals("after", events.get(9).getVaccineName(), "the torn event is replaced");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    static void tornHeaderIsDroppedOnOpen() throws Exception {
+        Path dir = Files.createTempDirectory("eventlog");
+        try {
+            append(dir, 5);
+            // a length written without its record
+            Path segment = onlySegment(dir);
+            int end = lastRecordOffset(segment);
+            end += 8 + readInt(segment, end);
+            patch(segment, end + 3, (byte) 0x40);
+
+            try (EventLog log = new EventLog(dir, SEGMENT_BYTES, false, 0)) {
+                checkEquals(5L, log.getLastSeq(), "last event after recovery");
+                log.append(Event.doses("after", 1));
+            }
+            List<Event> events = readAll(dir, 0);
+            checkEquals(6, events.size(), "events");
+            checkSequential(events, 1);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    static void replayCrossesSegments() throws Exception {
+        Path dir = Files.createTempDirectory("eventlog");
+        try {
+            int count = 5000;
+            append(dir, count);
+            List<Path> segments = segments(dir);
+            check(segments.size() >= 3, "expected at least 3 segments, got " + segments.size());
+
+            List<Event> events = readAll(dir, 0);
+            checkEquals(count, events.size(), "events replayed");
+            checkSequential(events, 1);
+
+            // from the middle of the second segment on
+            long secondFirst = firstSeq(segments.get(1));
+            long thirdFirst = firstSeq(segments.get(2));
+            long after = (secondFirst + thirdFirst) / 2;
+            List<Event> tail = readAll(dir, after);
+            checkEquals((int) (count - after), tail.size(), "events after " + after);
+            checkSequential(tail, after + 1);
+            checkEquals((long) count, EventLog.readLastSeq(dir), "last event");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    static void appendingContinuesAfterRotation() throws Exception {
+        Path dir = Files.createTempDirectory("eventlog");
+        try {
+            append(dir, 3000);
+            int segmentsBefore = segments(dir).size();
+            check(segmentsBefore >= 2, "expected a rotation, got " + segmentsBefore + " segment(s)");
+            append(dir, 3000);
+            check(segments(dir).size() > segmentsBefore, "the reopened log rolls on");
+
+            List<Event> events = readAll(dir, 0);
+            checkEquals(6000, events.size(), "events replayed");
+            checkSequential(events, 1);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // opens the log in dir, appends count events and closes it again
+    private static void append(Path dir, int count) throws IOException {
+        try (EventLog log = new EventLog(dir, SEGMENT_BYTES, false, 0)) {
+            for (int i = 0; i < count; i++) {
+                log.append(Event.doses("vaccine-" + (i % 7), i % 2 == 0 ? 1 : -1));
+            }
+        }
+    }
+
+    private static List<Event> readAll(Path dir, long afterSeq) throws IOException {
+        List<Event> events = new ArrayList<>();
+        EventLog.read(dir, afterSeq, events::add);
+        return events;
+    }
+
+    private static void checkSequential(List<Event> events, long first) {
+        for (int i = 0; i < events.size(); i++) {
+            checkEquals(first + i, events.get(i).getSeq(), "seq of event " + i);
+        }
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static Path onlySegment(Path dir) throws IOException {
+        List<Path> segments = segments(dir);
+        checkEquals(1, segments.size(), "segments");
+        return segments.get(0);
+    }
+
+    private static long firstSeq(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - ".log".length()));
+    }
+
+    // offset of the last record: records are a length, a CRC32 and the body, a zero length ends them
+    private static int lastRecordOffset(Path segment) throws IOException {
+        int offset = 0;
+        int last = -1;
+        int length;
+        while ((length = readInt(segment, offset)) > 0) {
+            last = offset;
+            offset += 8 + length;
+        }
+        check(last >= 0, "the segment has no records");
+        return last;
+    }
+
+    private static int readInt(Path segment, int offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            channel.read(buffer, offset);
+            return buffer.flip().getInt();
+        }
+    }
+
+    private static void patch(Path segment, int offset, byte value) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{value}), offset);
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
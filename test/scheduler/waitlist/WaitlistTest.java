@@ -0,0 +1,144 @@
+package scheduler.waitlist;
+
+import scheduler.Tests;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static scheduler.Tests.check;
+import static scheduler.Tests.checkEquals;
+
+public class WaitlistTest {
+    private static final LocalDate DAY = LocalDate.of(2031, 5, 12);
+
+    public static void main(String[] args) {
+        // the embedded backend only decides the dialect here, no connection is opened
+        System.setProperty("Backend", "embedded");
+        Tests tests = new Tests("WaitlistTest");
+        tests.run("unknownVaccineDoesNotStopTheNextPatient", WaitlistTest::unknownVaccineDoesNotStopTheNextPatient);
+        tests.finish();
+    }
+
+    static void unknownVaccineDoesNotStopTheNextPatient() throws Exception {
+        FakeDatabase db = new FakeDatabase(Set.of("Pfizer"), List.of(101L, 102L));
+        Waitlist.Entry unknown = entry("first", "NotYetStocked");
+        Waitlist.Entry valid = entry("second", "Pfizer");
+
+        Waitlist.Assignment skipped = Waitlist.assign(db.connection, unknown, DAY);
+        checkEquals(Waitlist.Outcome.UNKNOWN_VACCINE, skipped.getOutcome(), "outcome of the unknown vaccine");
+        checkEquals(1, db.savepointRollbacks, "rollbacks to the savepoint");
+        check(db.booked.isEmpty(), "no slot was claimed for the unknown vaccine");
+
+        Waitlist.Assignment booked = Waitlist.assign(db.connection, valid, DAY);
+        checkEquals(Waitlist.Outcome.BOOKED, booked.getOutcome(), "outcome of the valid entry");
+        checkEquals(101L, booked.getSlotID(), "slot booked");
+        checkEquals("second", db.booked.get(101L), "patient of the slot");
+    }
+
+    private static Waitlist.Entry entry(String patientName, String vaccineName) {
+        return new Waitlist.Entry(patientName, vaccineName, DAY, DAY, 0, new Timestamp(0));
+    }
+
+    // Answers the statements Waitlist.assign sends on the H2 path. Claiming a slot for a vaccine
+    // that is not known fails like the foreign key does.
+    private static class FakeDatabase {
+        final Connection connection;
+        final Set<String> vaccines;
+        final List<Long> free;
+        final Map<Long, String> booked = new HashMap<>();
+        int savepointRollbacks = 0;
+
+        FakeDatabase(Set<String> vaccines, List<Long> free) {
+            this.vaccines = vaccines;
+            this.free = new ArrayList<>(free);
+            this.connection = proxy(Connection.class, (method, args) -> switch (method) {
+                case "setSavepoint" -> proxy(Savepoint.class, (m, a) -> null);
+                case "rollback" -> {
+                    savepointRollbacks++;
+                    yield null;
+                }
+                case "prepareStatement" -> statement((String) args[0]);
+                default -> throw new SQLException("Not supported: " + method);
+            });
+        }
+
+        private PreparedStatement statement(String sql) {
+            Map<Integer, Object> parameters = new HashMap<>();
+            return proxy(PreparedStatement.class, (method, args) -> switch (method) {
+                case "setString", "setDate", "setLong" -> {
+                    parameters.put((Integer) args[0], args[1]);
+                    yield null;
+                }
+                case "executeQuery" -> query(sql, parameters);
+                case "executeUpdate" -> update(sql, parameters);
+                default -> throw new SQLException("Not supported: " + method);
+            });
+        }
+
+        private ResultSet query(String sql, Map<Integer, Object> parameters) throws SQLException {
+            List<Map<String, Object>> rows = new ArrayList<>();
+            if (sql.startsWith("SELECT 1 FROM Vaccines")) {
+                if (vaccines.contains((String) parameters.get(1))) {
+                    rows.add(Map.of());
+                }
+            } else if (sql.startsWith("SELECT ID, CaregiverName, Time FROM Availabilities")) {
+                for (long ID : free) {
+                    rows.add(Map.of("ID", ID, "CaregiverName", "caregiver", "Time", Date.valueOf(DAY)));
+                }
+            } else {
+                throw new SQLException("Unexpected query: " + sql);
+            }
+            return resultSet(rows);
+        }
+
+        private int update(String sql, Map<Integer, Object> parameters) throws SQLException {
+            if (sql.startsWith("DELETE FROM Waitlist")) {
+                return 1;
+            } else if (sql.startsWith("UPDATE Availabilities")) {
+                if (!vaccines.contains((String) parameters.get(2))) {
+                    throw new SQLException("Referential integrity constraint violation", "23506");
+                }
+                long ID = (Long) parameters.get(3);
+                if (!free.remove(ID)) {
+                    return 0;
+                }
+                booked.put(ID, (String) parameters.get(1));
+                return 1;
+            } else if (sql.startsWith("UPDATE Vaccines")) {
+                return vaccines.contains((String) parameters.get(1)) ? 1 : 0;
+            }
+            throw new SQLException("Unexpected update: " + sql);
+        }
+
+        private static ResultSet resultSet(List<Map<String, Object>> rows) {
+            int[] row = {-1};
+            return proxy(ResultSet.class, (method, args) -> switch (method) {
+                case "next" -> ++row[0] < rows.size();
+                case "getLong", "getString", "getDate" -> rows.get(row[0]).get((String) args[0]);
+                case "close" -> null;
+                default -> throw new SQLException("Not supported: " + method);
+            });
+        }
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args) throws SQLException;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.handle(method.getName(), args)));
+    }
+}